@@ -0,0 +1,185 @@
+package com.manifoldjs.hostedwebapp;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+* Collects the latencies, allocations and executor queue depths of a simulation run.
+*
+* Latencies are recorded by the simulation and reported with exact percentiles. The queue depth
+* of each monitored executor and the bytes allocated by the threads whose names start with a
+* monitored prefix are sampled periodically; allocations need a JVM that implements
+* com.sun.management.ThreadMXBean.
+*/
+final class LoadReport {
+    private final Map<String, List<Long>> latencies = new TreeMap<String, List<Long>>();
+    private final Map<String, ThreadPoolExecutor> executors = new LinkedHashMap<String, ThreadPoolExecutor>();
+    private final Map<String, List<Integer>> queueDepths = new LinkedHashMap<String, List<Integer>>();
+    private final List<String> threadPrefixes = new ArrayList<String>();
+
+    // the latest allocation count of each thread, kept after the thread ends
+    private final Map<Long, Long> allocatedBytes = new HashMap<Long, Long>();
+    private final Map<Long, String> threadNames = new HashMap<Long, String>();
+
+    private ScheduledExecutorService sampler;
+    private long gcCount;
+    private long gcTime;
+
+    void monitor(String name, ThreadPoolExecutor executor) {
+        this.executors.put(name, executor);
+        this.queueDepths.put(name, new ArrayList<Integer>());
+    }
+
+    void monitorAllocations(String threadPrefix) {
+        this.threadPrefixes.add(threadPrefix);
+    }
+
+    synchronized void record(String name, long micros) {
+        List<Long> values = this.latencies.get(name);
+        if (values == null) {
+            values = new ArrayList<Long>();
+            this.latencies.put(name, values);
+        }
+
+        values.add(micros);
+    }
+
+    void start(long sampleInterval) {
+        this.gcCount = -getGcCount();
+        this.gcTime = -getGcTime();
+        this.sampler = Executors.newSingleThreadScheduledExecutor();
+        this.sampler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                LoadReport.this.sample();
+            }
+        }, 0, sampleInterval, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() throws InterruptedException {
+        this.sampler.shutdown();
+        this.sampler.awaitTermination(1, TimeUnit.SECONDS);
+        this.sample();
+        this.gcCount += getGcCount();
+        this.gcTime += getGcTime();
+    }
+
+    synchronized void print(PrintStream out) {
+        out.println(String.format("%-24s %8s %10s %10s %10s %10s", "latency (ms)", "count", "p50", "p90", "p99", "max"));
+        for (Map.Entry<String, List<Long>> entry : this.latencies.entrySet()) {
+            List<Long> values = new ArrayList<Long>(entry.getValue());
+            Collections.sort(values);
+            out.println(String.format("%-24s %8d %10.1f %10.1f %10.1f %10.1f", entry.getKey(), values.size(),
+                    percentile(values, 50) / 1000.0, percentile(values, 90) / 1000.0, percentile(values, 99) / 1000.0,
+                    values.get(values.size() - 1) / 1000.0));
+        }
+
+        out.println();
+        out.println(String.format("%-24s %8s %10s %10s %10s", "queue depth", "samples", "mean", "p99", "max"));
+        for (Map.Entry<String, List<Integer>> entry : this.queueDepths.entrySet()) {
+            List<Long> values = new ArrayList<Long>();
+            long sum = 0;
+            for (int depth : entry.getValue()) {
+                values.add((long) depth);
+                sum += depth;
+            }
+
+            Collections.sort(values);
+            out.println(String.format("%-24s %8d %10.2f %10d %10d", entry.getKey(), values.size(), values.isEmpty() ? 0.0 : (double) sum / values.size(),
+                    percentile(values, 99), values.isEmpty() ? 0 : values.get(values.size() - 1)));
+        }
+
+        out.println();
+        out.println(String.format("%-24s %8s %14s", "allocations", "threads", "bytes"));
+        for (String prefix : this.threadPrefixes) {
+            int threads = 0;
+            long bytes = 0;
+            for (Map.Entry<Long, Long> entry : this.allocatedBytes.entrySet()) {
+                if (this.threadNames.get(entry.getKey()).startsWith(prefix)) {
+                    threads++;
+                    bytes += entry.getValue();
+                }
+            }
+
+            out.println(String.format("%-24s %8d %14d", prefix, threads, bytes));
+        }
+
+        out.println(String.format("%-24s %8d %12d ms", "garbage collections", this.gcCount, this.gcTime));
+    }
+
+    private synchronized void sample() {
+        for (Map.Entry<String, ThreadPoolExecutor> entry : this.executors.entrySet()) {
+            this.queueDepths.get(entry.getKey()).add(entry.getValue().getQueue().size());
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean) || this.threadPrefixes.isEmpty()) {
+            return;
+        }
+
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        for (ThreadInfo thread : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (thread == null || !this.isMonitored(thread.getThreadName())) {
+                continue;
+            }
+
+            long bytes = allocations.getThreadAllocatedBytes(thread.getThreadId());
+            if (bytes >= 0) {
+                this.allocatedBytes.put(thread.getThreadId(), bytes);
+                this.threadNames.put(thread.getThreadId(), thread.getThreadName());
+            }
+        }
+    }
+
+    private boolean isMonitored(String threadName) {
+        for (String prefix : this.threadPrefixes) {
+            if (threadName.startsWith(prefix)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // nearest-rank percentile of sorted values
+    private static long percentile(List<Long> values, int percentile) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+
+        int rank = (int) Math.ceil(percentile / 100.0 * values.size());
+        return values.get(Math.max(0, rank - 1));
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+
+        return count;
+    }
+
+    private static long getGcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, collector.getCollectionTime());
+        }
+
+        return time;
+    }
+}
@@ -0,0 +1,241 @@
+package com.manifoldjs.hostedwebapp;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+* Replays a navigation trace against the injection pipeline and the reconnection logic.
+*
+* Pages and import scripts are served by a local SimulatedServer, page events are delivered by a
+* SimulatedWebView to a SimulatedPlugin, and a LoadReport prints the latency percentiles,
+* allocations and executor queue depths at the end. Options are passed as --name=value:
+*
+* trace          file with one event per line, as "delay-ms event argument": load URL, started URL,
+*                finished URL, error URL, network none|wifi|4g..., or server up|down. {origin} in URLs
+*                is replaced with the origin of the local server, and lines starting with # are
+*                skipped. Without a trace, a synthetic one with rapid navigations and an outage is used.
+* manifest       manifest file, with {origin} placeholders; generated from scripts and sections if missing
+* pages          number of navigations of the synthetic trace (100)
+* interval       delay between the navigations of the synthetic trace, in ms (300)
+* sections       number of sections of the site, each with its own import scripts (8)
+* scripts        number of import scripts of the generated manifest (24)
+* latency        minimum response time of the server, in ms (50)
+* jitter         random delay added to each response, in ms (100)
+* error-rate     fraction of script requests that fail with a server error (0.02)
+* payload        size of the import scripts, in bytes (16384)
+* large-payload  size of every tenth import script, in bytes (1048576)
+* max-age        max-age of the import scripts, in seconds (30)
+* connection     connection type reported before the trace starts, for the mjs_connection_policy
+*                of the manifest (wifi)
+* drain          time to wait for pending work after the trace, in ms (5000)
+*/
+public final class LoadSimulator {
+    private static final int SCRIPT_FETCH_THREADS = 4;
+    private static final int INJECTION_THREADS = 2;
+    private static final int LOCAL_SCRIPT_SIZE = 64 * 1024;
+
+    private static final class Event {
+        final long delay;
+        final String type;
+        final String argument;
+
+        Event(long delay, String type, String argument) {
+            this.delay = delay;
+            this.type = type;
+            this.argument = argument;
+        }
+    }
+
+    private LoadSimulator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        Logger.getLogger("HostedWebApp").setLevel(Level.OFF);
+        Metrics.enable(false);
+
+        SimulatedServer server = new SimulatedServer(getLong(options, "latency", 50), getLong(options, "jitter", 100),
+                Double.parseDouble(getOption(options, "error-rate", "0.02")), (int) getLong(options, "payload", 16384),
+                (int) getLong(options, "large-payload", 1048576), (int) getLong(options, "max-age", 30));
+        server.start();
+        String origin = server.getOrigin();
+
+        int sections = (int) getLong(options, "sections", 8);
+        JSONObject manifest = options.containsKey("manifest")
+                ? new JSONObject(readFile(options.get("manifest")).replace("{origin}", origin))
+                : createManifest(origin, (int) getLong(options, "scripts", 24), sections);
+        List<Event> trace = options.containsKey("trace")
+                ? parseTrace(readFile(options.get("trace")).replace("{origin}", origin))
+                : createTrace(origin, (int) getLong(options, "pages", 100), getLong(options, "interval", 300), sections);
+
+        PriorityExecutor fetchExecutor = new PriorityExecutor(SCRIPT_FETCH_THREADS, "HostedWebApp-fetch");
+        PriorityExecutor injectionExecutor = new PriorityExecutor(INJECTION_THREADS, "HostedWebApp-inject");
+        LoadReport report = new LoadReport();
+        report.monitor("fetch executor", fetchExecutor);
+        report.monitor("injection executor", injectionExecutor);
+        report.monitorAllocations("HostedWebApp-fetch");
+        report.monitorAllocations("HostedWebApp-inject");
+        report.monitorAllocations("simulator-main");
+
+        final SimulatedWebView webView = new SimulatedWebView(server);
+        RuntimeManifest settings = RuntimeManifest.fromJson(manifest, "android");
+        ConnectionPolicy connectionPolicy = ConnectionPolicy.compile(settings);
+        SimulatedScriptLoader scriptLoader = new SimulatedScriptLoader(LOCAL_SCRIPT_SIZE);
+        ScriptBundles scriptBundles = new ScriptBundles(scriptLoader, fetchExecutor, settings.pluginMode, "/", connectionPolicy.deferrableScripts);
+        webView.setPlugin(new SimulatedPlugin(webView, RuleIndex.compile(settings.apiRules, settings.scriptRules), scriptBundles, connectionPolicy,
+                scriptLoader, fetchExecutor, injectionExecutor, report));
+        webView.setConnection(getOption(options, "connection", "wifi"));
+
+        System.out.println(String.format("Replaying %d events against %s", trace.size(), origin));
+        report.start(5);
+        for (final Event event : trace) {
+            Thread.sleep(event.delay);
+            replay(webView, server, event);
+        }
+
+        Thread.sleep(getLong(options, "drain", 5000));
+        report.stop();
+
+        webView.shutdown();
+        fetchExecutor.shutdownNow();
+        injectionExecutor.shutdownNow();
+        server.stop();
+
+        System.out.println();
+        report.print(System.out);
+        System.out.println();
+        System.out.println(String.format("server: %d requests, %d errors, %d not modified", server.getRequests(), server.getErrors(), server.getNotModified()));
+        System.out.println("counters: " + Metrics.snapshot().getJSONObject("counters").toString());
+    }
+
+    private static void replay(final SimulatedWebView webView, SimulatedServer server, final Event event) {
+        if (event.type.equals("load")) {
+            webView.post(new Runnable() {
+                @Override
+                public void run() {
+                    webView.loadUrl(event.argument);
+                }
+            });
+        } else if (event.type.equals("started")) {
+            webView.postMessage("onPageStarted", event.argument);
+        } else if (event.type.equals("finished")) {
+            webView.postMessage("onPageFinished", event.argument);
+        } else if (event.type.equals("error")) {
+            try {
+                JSONObject error = new JSONObject();
+                error.put("errorCode", -6);
+                error.put("url", event.argument);
+                webView.postMessage("onReceivedError", error);
+            } catch (JSONException e) {
+                throw new IllegalStateException(e);
+            }
+        } else if (event.type.equals("network")) {
+            webView.setConnection(event.argument);
+        } else if (event.type.equals("server")) {
+            server.setAvailable(event.argument.equals("up"));
+        } else {
+            throw new IllegalArgumentException(String.format("Unknown trace event '%s'", event.type));
+        }
+    }
+
+    // the bridge on every page, scripts for each section and every fifth script on all pages, with
+    // the default connection policy and every fourth script not essential
+    private static JSONObject createManifest(String origin, int scripts, int sections) throws JSONException {
+        JSONArray apiAccess = new JSONArray();
+        apiAccess.put(new JSONObject().put("match", origin + "/*").put("access", "cordova"));
+
+        JSONArray importScripts = new JSONArray();
+        for (int i = 0; i < scripts; i++) {
+            String match = i % 5 == 0 ? origin + "/*" : origin + "/section" + (i % sections) + "/*";
+            JSONObject importScript = new JSONObject().put("src", origin + "/scripts/" + i + ".js").put("match", match);
+            if (i % 4 == 3) {
+                importScript.put("essential", false);
+            }
+
+            importScripts.put(importScript);
+        }
+
+        return new JSONObject()
+                .put("start_url", origin + "/")
+                .put("mjs_api_access", apiAccess)
+                .put("mjs_import_scripts", importScripts)
+                .put("mjs_connection_policy", new JSONObject());
+    }
+
+    // browsing with occasional rapid navigations, and an outage half way through
+    private static List<Event> createTrace(String origin, int pages, long interval, int sections) {
+        List<Event> trace = new ArrayList<Event>();
+        for (int i = 0; i < pages; i++) {
+            if (i == pages / 2) {
+                trace.add(new Event(0, "network", "none"));
+                trace.add(new Event(0, "server", "down"));
+                trace.add(new Event(interval, "load", origin + "/section0/offline.html"));
+                trace.add(new Event(2000, "server", "up"));
+                trace.add(new Event(0, "network", "wifi"));
+            }
+
+            // the first page after the outage waits for the failed page to be reloaded
+            long delay = i == pages / 2 ? 5000 : (i % 10 == 9 ? 10 : interval);
+            String url = String.format("%s/section%d/page%d.html", origin, (i * 7) % sections, i % 50);
+            trace.add(new Event(delay, "load", url));
+        }
+
+        return trace;
+    }
+
+    private static List<Event> parseTrace(String text) {
+        List<Event> trace = new ArrayList<Event>();
+        for (String line : text.split("\r?\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] parts = line.split("\\s+", 3);
+            if (parts.length < 3) {
+                throw new IllegalArgumentException(String.format("Invalid trace event '%s'", line));
+            }
+
+            trace.add(new Event(Long.parseLong(parts[0]), parts[1], parts[2]));
+        }
+
+        return trace;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException(String.format("Invalid option '%s', expected --name=value", arg));
+            }
+
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+
+        return options;
+    }
+
+    private static String getOption(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private static long getLong(Map<String, String> options, String name, long defaultValue) {
+        return Long.parseLong(getOption(options, name, String.valueOf(defaultValue)));
+    }
+
+    private static String readFile(String path) throws IOException {
+        return StreamReader.read(new FileInputStream(path));
+    }
+}
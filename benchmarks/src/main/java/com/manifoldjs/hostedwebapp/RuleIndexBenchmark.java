@@ -0,0 +1,114 @@
+package com.manifoldjs.hostedwebapp;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+* Compiling manifest rules and matching pages against them.
+*
+* The manifest mixes API access and import script rules for exact hosts, wildcard subdomains
+* and any host, with and without path patterns. Pages cycle through more distinct URLs than
+* the match cache holds, so matchDistinct measures the uncached lookups and matchRepeated the
+* cached ones.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleIndexBenchmark {
+    private static final Logger log = Logger.getLogger("HostedWebApp");
+    private static final int DISTINCT_URLS = 4096;
+
+    @Param({ "10", "100", "1000", "10000" })
+    public int rules;
+
+    private JSONObject manifest;
+    private RuleIndex ruleIndex;
+    private String[] urls;
+    private int next;
+
+    @Setup
+    public void setUp() throws JSONException {
+        log.setLevel(Level.OFF);
+
+        JSONArray apiAccess = new JSONArray();
+        JSONArray importScripts = new JSONArray();
+        for (int i = 0; i < this.rules; i++) {
+            JSONObject rule = new JSONObject();
+            rule.put("match", getMatchPattern(i));
+            if (i % 2 == 0) {
+                rule.put("access", i % 10 == 0 ? "none" : "cordova");
+                if (i % 4 == 0) {
+                    rule.put("platform", "android,ios");
+                }
+
+                apiAccess.put(rule);
+            } else {
+                rule.put("src", "https://cdn.example.com/scripts/" + i + ".js");
+                importScripts.put(rule);
+            }
+        }
+
+        this.manifest = new JSONObject();
+        this.manifest.put("mjs_api_access", apiAccess);
+        this.manifest.put("mjs_import_scripts", importScripts);
+        this.ruleIndex = RuleIndex.compile(this.manifest, "android");
+
+        // half of the pages are on hosts that have rules
+        this.urls = new String[DISTINCT_URLS];
+        for (int i = 0; i < DISTINCT_URLS; i++) {
+            int host = (i * 7919) % Math.max(1, this.rules * 2);
+            this.urls[i] = String.format("https://www.site%d.example.com/section%d/page%d.html?id=%d#top", host, i % 13, i, i);
+        }
+    }
+
+    @Benchmark
+    public RuleIndex compile() {
+        return RuleIndex.compile(this.manifest, "android");
+    }
+
+    @Benchmark
+    public RuleIndex.Match matchDistinct() {
+        this.next = (this.next + 1) % DISTINCT_URLS;
+        return this.ruleIndex.match(this.urls[this.next]);
+    }
+
+    @Benchmark
+    public RuleIndex.Match matchRepeated() {
+        return this.ruleIndex.match(this.urls[0]);
+    }
+
+    private static String getMatchPattern(int rule) {
+        switch (rule % 5) {
+            case 0:
+                return "https://www.site" + rule + ".example.com/*";
+            case 1:
+                return "*.site" + rule + ".example.com";
+            case 2:
+                return "https://www.site" + rule + ".example.com/section" + (rule % 13) + "/*";
+            case 3:
+                return "http://site" + rule + ".example.com:8080/*";
+            default:
+                // rules that apply to any host are checked for every page
+                return rule % 50 == 4 ? "*://*/section" + (rule % 13) + "/page" + rule + ".html" : "site" + rule + ".example.com";
+        }
+    }
+}
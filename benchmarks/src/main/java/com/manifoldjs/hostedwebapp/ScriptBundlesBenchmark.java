@@ -0,0 +1,133 @@
+package com.manifoldjs.hostedwebapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+* Assembling the script bundle injected into pages.
+*
+* Scripts are served from memory, so the results measure the assembly itself: the Cordova
+* scripts are read inline and the custom scripts through the fetch executor. The scripts expire
+* immediately for the build benchmarks, so every bundle is rebuilt, and never for cachedBundle,
+* which measures the memoized lookup. appendScripts measures the batched injection of scripts
+* into a page that was not loaded through the plugin.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScriptBundlesBenchmark {
+    private static final Logger log = Logger.getLogger("HostedWebApp");
+
+    @Param({ "1024", "65536", "1048576" })
+    public int scriptSize;
+
+    @Param({ "1", "8" })
+    public int customScripts;
+
+    private PriorityExecutor fetchExecutor;
+    private RuleIndex.Match match;
+    private ScriptBundles expiredBundles;
+    private ScriptBundles freshBundles;
+    private ScriptLoader freshLoader;
+    private List<String> sources;
+
+    private static final class MemoryScriptLoader implements ScriptLoader {
+        private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+        @Override
+        public Entry getEntry(String source) throws IOException {
+            Entry entry = this.entries.get(source);
+            if (entry == null) {
+                throw new FileNotFoundException(source);
+            }
+
+            return entry;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        log.setLevel(Level.OFF);
+
+        MemoryScriptLoader expired = new MemoryScriptLoader();
+        MemoryScriptLoader fresh = new MemoryScriptLoader();
+        this.sources = new ArrayList<String>();
+        List<String> scripts = new ArrayList<String>();
+        for (int i = 0; i < this.customScripts + 2; i++) {
+            String source = i == 0 ? "cordova.js" : i == 1 ? "hostedapp-bridge.js" : "https://cdn.example.com/scripts/" + i + ".js";
+            String content = createScript(this.scriptSize, i);
+            expired.entries.put(source, new ScriptLoader.Entry(content, null, null, 0));
+            fresh.entries.put(source, new ScriptLoader.Entry(content, null, null, Long.MAX_VALUE));
+            this.sources.add(source);
+            if (i > 1) {
+                scripts.add(source);
+            }
+        }
+
+        this.fetchExecutor = new PriorityExecutor(4, "fetch");
+        this.match = new RuleIndex.Match(true, scripts);
+        this.expiredBundles = new ScriptBundles(expired, this.fetchExecutor, "client", "/", Collections.<String>emptySet());
+        this.freshBundles = new ScriptBundles(fresh, this.fetchExecutor, "client", "/", Collections.<String>emptySet());
+        this.freshLoader = fresh;
+        this.freshBundles.build(this.match);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.fetchExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public String build() {
+        return this.expiredBundles.build(this.match);
+    }
+
+    @Benchmark
+    public String cachedBundle() {
+        return this.freshBundles.getCached(this.match);
+    }
+
+    @Benchmark
+    public int appendScripts() {
+        StringBuilder script = new StringBuilder();
+        ScriptBundles.appendScripts(this.freshLoader, this.fetchExecutor, script, this.sources);
+        return script.length();
+    }
+
+    // JavaScript-like content with some non-ASCII characters
+    private static String createScript(int size, int seed) {
+        StringBuilder script = new StringBuilder(size + 64);
+        int line = 0;
+        while (script.length() < size) {
+            script.append("var value").append(seed).append('_').append(line).append(" = \"résumé 日本\";\n");
+            line++;
+        }
+
+        script.setLength(size);
+        return script.toString();
+    }
+}
@@ -0,0 +1,124 @@
+package com.manifoldjs.hostedwebapp;
+
+/**
+* Delivers the page events of the SimulatedWebView to PageEvents, as HostedWebApp does.
+*
+* HostedWebApp depends on the Android SDK and cannot run on a JVM. Its page events are handled by
+* PageEvents, which drives NavigationTracker and ReconnectionController and calls back the plugin
+* to apply the connection policy, show the offline page and inject the scripts through its
+* ScriptInjector. This class is the host on the JVM: it has no views and no manifest loading, and
+* records the latencies of page loads, injections and reconnections around the shared code.
+*/
+final class SimulatedPlugin implements SimulatedWebView.Plugin {
+    private final SimulatedWebView webView;
+    private final RuleIndex ruleIndex;
+    private final ScriptBundles scriptBundles;
+    private final ConnectionPolicy connectionPolicy;
+    private final LoadReport report;
+    private final NavigationTracker navigations = new NavigationTracker();
+    private final ScriptInjector scriptInjector;
+    private final PageEvents pageEvents;
+
+    // accessed on the main thread
+    private long pageStarted;
+    private long pageFinished;
+    private long failedSince;
+
+    SimulatedPlugin(final SimulatedWebView webView, RuleIndex ruleIndex, ScriptBundles scriptBundles, ConnectionPolicy connectionPolicy,
+            CachingScriptLoader scriptLoader, PriorityExecutor fetchExecutor, PriorityExecutor injectionExecutor, LoadReport report) {
+        this.webView = webView;
+        this.ruleIndex = ruleIndex;
+        this.scriptBundles = scriptBundles;
+        this.connectionPolicy = connectionPolicy;
+        this.report = report;
+
+        final SimulatedPlugin me = this;
+        this.scriptInjector = new ScriptInjector(this.navigations, scriptLoader, fetchExecutor, injectionExecutor, new ScriptInjector.Page() {
+            @Override
+            public void evaluate(String bundle, int token, boolean cached) {
+                me.evaluateScript(token, cached);
+            }
+        });
+
+        ReconnectionController reconnection = new ReconnectionController(webView, webView.getThreadPool(), null, new ReconnectionController.Page() {
+            @Override
+            public String getUrl() {
+                return webView.getUrl();
+            }
+
+            @Override
+            public void reload(String url) {
+                webView.loadUrl(url);
+            }
+        });
+
+        this.pageEvents = new PageEvents(this.navigations, reconnection, new PageEvents.Host() {
+            @Override
+            public void connectionChanged(String connectionType) {
+                int current = me.connectionPolicy.classify(connectionType);
+                if (current != me.scriptInjector.getConnectionClass()) {
+                    me.scriptInjector.setConnectionClass(current, me.connectionPolicy);
+                }
+            }
+
+            @Override
+            public boolean isUnavailable(String url) {
+                return false;
+            }
+
+            @Override
+            public void showOfflinePage() {
+                if (me.failedSince == 0) {
+                    me.failedSince = System.nanoTime();
+                }
+            }
+
+            @Override
+            public void hideOfflinePage() {
+                if (me.failedSince != 0) {
+                    me.report.record("reconnect", (System.nanoTime() - me.failedSince) / 1000);
+                    me.failedSince = 0;
+                }
+            }
+
+            @Override
+            public void injectScripts(String url, int token) {
+                me.pageFinished = System.nanoTime();
+                me.scriptInjector.inject(me.ruleIndex, me.scriptBundles, url, token);
+                me.report.record("injection.start", (System.nanoTime() - me.pageFinished) / 1000);
+            }
+        });
+    }
+
+    @Override
+    public Object onMessage(String id, Object data) {
+        long now = System.nanoTime();
+        Object result = this.pageEvents.onMessage(id, data);
+
+        // page loads are timed around the shared handling of the events
+        if (id.equals("onPageStarted")) {
+            this.pageStarted = now;
+        } else if (id.equals("onPageFinished") && this.pageStarted != 0) {
+            this.report.record(this.pageEvents.isConnectionError() ? "page.failed" : "page.load", (now - this.pageStarted) / 1000);
+            this.pageStarted = 0;
+        }
+
+        return result;
+    }
+
+    // stands in for evaluateJavascript, on the main thread
+    private void evaluateScript(final int token, final boolean cached) {
+        final SimulatedPlugin me = this;
+        this.webView.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!me.navigations.isCurrent(token)) {
+                    Metrics.count("injection.stale");
+                    return;
+                }
+
+                me.report.record(cached ? "injection.cached" : "injection.built", (System.nanoTime() - me.pageFinished) / 1000);
+            }
+        });
+    }
+}
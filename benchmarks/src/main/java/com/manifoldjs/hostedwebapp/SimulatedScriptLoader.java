@@ -0,0 +1,64 @@
+package com.manifoldjs.hostedwebapp;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+* The stores of ScriptCache for the load simulator: an unbounded memory cache and no disk cache.
+*
+* Scripts of the www folder are answered with generated content of the given size. When remote
+* scripts are served and revalidated is decided by CachingScriptLoader, as in the plugin.
+*/
+final class SimulatedScriptLoader extends CachingScriptLoader {
+    private static final int TIMEOUT = 10000;
+
+    private final String localScript;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    SimulatedScriptLoader(int localScriptSize) {
+        StringBuilder script = new StringBuilder(localScriptSize + 64);
+        while (script.length() < localScriptSize) {
+            script.append("(function () { /* packaged plugin script */ })();\n");
+        }
+
+        this.localScript = script.toString();
+    }
+
+    @Override
+    Entry getFromMemory(String source) {
+        return this.entries.get(source);
+    }
+
+    @Override
+    void putInMemory(String source, Entry entry) {
+        this.entries.put(source, entry);
+    }
+
+    @Override
+    Entry readPackaged(String source) {
+        return new Entry(this.localScript, null, null, Long.MAX_VALUE);
+    }
+
+    @Override
+    Entry readStored(String source) {
+        return null;
+    }
+
+    @Override
+    void store(String source, Entry entry) {
+    }
+
+    @Override
+    void updateStored(String source, Entry entry) {
+    }
+
+    @Override
+    HttpURLConnection openConnection(String source) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(source).openConnection();
+        urlConnection.setConnectTimeout(TIMEOUT);
+        urlConnection.setReadTimeout(TIMEOUT);
+        return urlConnection;
+    }
+}
@@ -0,0 +1,195 @@
+package com.manifoldjs.hostedwebapp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+* Local HTTP server that stands in for the hosted web app and the hosts of its import scripts.
+*
+* Every response is delayed by the configured latency plus a random jitter. Scripts under
+* /scripts/ fail with a server error at the configured rate, and every tenth script has the large
+* payload size. Scripts carry an ETag and a max-age, so revalidations are answered with 304. While
+* the server is unavailable, every request gets a 503, which is how outages are simulated.
+*/
+final class SimulatedServer {
+    private final long latency;
+    private final long jitter;
+    private final double errorRate;
+    private final int payloadSize;
+    private final int largePayloadSize;
+    private final int maxAge;
+    private final Random random = new Random(42);
+
+    private final ConcurrentHashMap<String, byte[]> scripts = new ConcurrentHashMap<String, byte[]>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private volatile boolean available = true;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    SimulatedServer(long latency, long jitter, double errorRate, int payloadSize, int largePayloadSize, int maxAge) {
+        this.latency = latency;
+        this.jitter = jitter;
+        this.errorRate = errorRate;
+        this.payloadSize = payloadSize;
+        this.largePayloadSize = largePayloadSize;
+        this.maxAge = maxAge;
+    }
+
+    void start() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    SimulatedServer.this.respond(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+
+        // responses are delayed independently of each other
+        this.executor = Executors.newCachedThreadPool();
+        this.server.setExecutor(this.executor);
+        this.server.start();
+    }
+
+    void stop() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    String getOrigin() {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort();
+    }
+
+    void setAvailable(boolean available) {
+        this.available = available;
+    }
+
+    boolean isAvailable() {
+        return this.available;
+    }
+
+    int getRequests() {
+        return this.requests.get();
+    }
+
+    int getErrors() {
+        return this.errors.get();
+    }
+
+    int getNotModified() {
+        return this.notModified.get();
+    }
+
+    /**
+    * Returns the delay of a response, which the simulated WebView also applies to page loads.
+    */
+    long nextDelay() {
+        synchronized (this.random) {
+            return this.latency + (this.jitter > 0 ? (long) (this.random.nextDouble() * this.jitter) : 0);
+        }
+    }
+
+    private boolean nextError() {
+        synchronized (this.random) {
+            return this.random.nextDouble() < this.errorRate;
+        }
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        this.requests.incrementAndGet();
+        try {
+            Thread.sleep(this.nextDelay());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        if (!this.available) {
+            this.errors.incrementAndGet();
+            this.send(exchange, 503, null, new byte[0]);
+            return;
+        }
+
+        if (!path.startsWith("/scripts/")) {
+            this.send(exchange, 200, "text/html", "<!DOCTYPE html><html><body></body></html>".getBytes("UTF-8"));
+            return;
+        }
+
+        if (this.nextError()) {
+            this.errors.incrementAndGet();
+            this.send(exchange, 500, null, new byte[0]);
+            return;
+        }
+
+        String name = path.substring("/scripts/".length());
+        int size = isLarge(name) ? this.largePayloadSize : this.payloadSize;
+        String etag = "\"" + name + "-" + size + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Cache-Control", "max-age=" + this.maxAge);
+        if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            this.notModified.incrementAndGet();
+            this.send(exchange, 304, null, null);
+            return;
+        }
+
+        byte[] script = this.scripts.get(name);
+        if (script == null) {
+            script = getScript(name, size);
+            this.scripts.putIfAbsent(name, script);
+        }
+
+        this.send(exchange, 200, "application/javascript", script);
+    }
+
+    private void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        if (contentType != null) {
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+        }
+
+        boolean head = exchange.getRequestMethod().equals("HEAD");
+        exchange.sendResponseHeaders(status, body == null || body.length == 0 || head ? -1 : body.length);
+        if (body != null && !head) {
+            OutputStream output = exchange.getResponseBody();
+            output.write(body);
+            output.close();
+        }
+    }
+
+    // scripts are named after their index, such as 10.js
+    private static boolean isLarge(String name) {
+        int dot = name.indexOf('.');
+        try {
+            return Integer.parseInt(dot >= 0 ? name.substring(0, dot) : name) % 10 == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static byte[] getScript(String name, int size) throws IOException {
+        StringBuilder script = new StringBuilder(size + 64);
+        script.append("window.loaded = (window.loaded || []).concat(['").append(name).append("']);\n");
+        while (script.length() < size) {
+            script.append("// padding to simulate a large script\n");
+        }
+
+        return script.toString().getBytes("UTF-8");
+    }
+}
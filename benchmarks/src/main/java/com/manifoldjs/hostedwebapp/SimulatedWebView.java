@@ -0,0 +1,172 @@
+package com.manifoldjs.hostedwebapp;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+* Stand-in for CordovaWebView and CordovaInterface in the load simulator.
+*
+* Plugin messages are delivered on a single main thread, as the Cordova plugin manager does, and
+* the thread pool runs the background work of the plugin. Loading a URL sends onPageStarted and,
+* after the latency of the simulated server, onPageFinished, preceded by onReceivedError when the
+* network is down or the server is unavailable. A load that is replaced by a newer navigation
+* does not finish.
+*/
+final class SimulatedWebView implements ReconnectionController.Scheduler {
+    private static final int ERROR_CONNECT = -6;
+
+    /**
+    * Receives the messages of the WebView, like CordovaPlugin.onMessage.
+    */
+    interface Plugin {
+        Object onMessage(String id, Object data);
+    }
+
+    private final SimulatedServer server;
+    private final ScheduledExecutorService mainThread = Executors.newSingleThreadScheduledExecutor(namedThreads("simulator-main"));
+    private final ExecutorService threadPool = Executors.newCachedThreadPool(namedThreads("simulator-pool"));
+    private final Map<Runnable, List<ScheduledFuture<?>>> callbacks = new HashMap<Runnable, List<ScheduledFuture<?>>>();
+
+    private Plugin plugin;
+    private volatile boolean networkAvailable = true;
+
+    // accessed on the main thread
+    private String url;
+    private int loads;
+
+    SimulatedWebView(SimulatedServer server) {
+        this.server = server;
+    }
+
+    void setPlugin(Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    ExecutorService getThreadPool() {
+        return this.threadPool;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        this.mainThread.execute(task);
+    }
+
+    @Override
+    public void postDelayed(final Runnable task, long delay) {
+        synchronized (this.callbacks) {
+            List<ScheduledFuture<?>> scheduled = this.callbacks.get(task);
+            if (scheduled == null) {
+                scheduled = new ArrayList<ScheduledFuture<?>>();
+                this.callbacks.put(task, scheduled);
+            }
+
+            scheduled.add(this.mainThread.schedule(task, delay, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        synchronized (this.callbacks) {
+            List<ScheduledFuture<?>> scheduled = this.callbacks.remove(task);
+            if (scheduled != null) {
+                for (ScheduledFuture<?> future : scheduled) {
+                    future.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+    * Delivers a message to the plugin on the main thread.
+    */
+    void postMessage(final String id, final Object data) {
+        this.post(new Runnable() {
+            @Override
+            public void run() {
+                SimulatedWebView.this.plugin.onMessage(id, data);
+            }
+        });
+    }
+
+    /**
+    * Navigates to a URL; must be called on the main thread.
+    */
+    void loadUrl(final String url) {
+        final SimulatedWebView me = this;
+        final int load = ++this.loads;
+        this.url = url;
+        this.plugin.onMessage("onPageStarted", url);
+        this.mainThread.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (load != me.loads) {
+                    return;
+                }
+
+                if (!me.networkAvailable || !me.server.isAvailable()) {
+                    me.plugin.onMessage("onReceivedError", getError(url));
+                }
+
+                me.plugin.onMessage("onPageFinished", url);
+            }
+        }, this.server.nextDelay(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+    * Returns the URL of the current page; must be called on the main thread.
+    */
+    String getUrl() {
+        return this.url;
+    }
+
+    /**
+    * Changes the network state and sends the networkconnection message with the connection type.
+    */
+    void setConnection(String type) {
+        this.networkAvailable = !type.equals("none");
+        this.postMessage("networkconnection", type);
+    }
+
+    void shutdown() throws InterruptedException {
+        this.mainThread.shutdownNow();
+        this.threadPool.shutdownNow();
+        this.mainThread.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    private static JSONObject getError(String url) {
+        try {
+            JSONObject error = new JSONObject();
+            error.put("errorCode", ERROR_CONNECT);
+            error.put("description", "net::ERR_CONNECTION_REFUSED");
+            error.put("url", url);
+            return error;
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ThreadFactory namedThreads(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,73 @@
+package com.manifoldjs.hostedwebapp;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+/**
+* Loading the default manifest at startup.
+*
+* runtimeManifest reads the settings from a matching runtime manifest, which includes hashing
+* manifest.json to check that it is up to date. json parses manifest.json and extracts the
+* settings from it, as when the app has no runtime manifest.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StartupManifestBenchmark {
+    @Param({ "10", "100", "1000" })
+    public int rules;
+
+    private String manifestText;
+    private String runtimeText;
+
+    @Setup
+    public void setUp() throws UnsupportedEncodingException {
+        StringBuilder manifest = new StringBuilder();
+        StringBuilder runtime = new StringBuilder();
+        manifest.append("{\"name\": \"Sample\", \"start_url\": \"https://example.com/\", \"scope\": \"/\", \"mjs_api_access\": [");
+        runtime.append("start_url\thttps://example.com/\nscope\t/\n");
+        for (int i = 0; i < this.rules; i++) {
+            manifest.append(i > 0 ? ", " : "").append("{\"match\": \"https://example.com/section").append(i).append("/*\", \"access\": \"cordova\"}");
+            runtime.append("api\tcordova\thttps://example.com/section").append(i).append("/*\n");
+        }
+
+        manifest.append("], \"mjs_import_scripts\": [");
+        for (int i = 0; i < this.rules; i++) {
+            manifest.append(i > 0 ? ", " : "").append("{\"src\": \"js/script").append(i).append(".js\", \"match\": \"https://example.com/section").append(i).append("/*\"}");
+            runtime.append("script\tjs/script").append(i).append(".js\thttps://example.com/section").append(i).append("/*\n");
+        }
+
+        manifest.append("]}");
+        this.manifestText = manifest.toString();
+
+        byte[] source = this.manifestText.getBytes("UTF-8");
+        this.runtimeText = RuntimeManifest.FORMAT + "\t" + RuntimeManifest.VERSION + "\n"
+                + "source\t" + source.length + "\t" + RuntimeManifest.hash(source) + "\n" + runtime;
+    }
+
+    @Benchmark
+    public StartupManifest runtimeManifest() throws JSONException {
+        return StartupManifest.load(this.manifestText, this.runtimeText, "android");
+    }
+
+    @Benchmark
+    public StartupManifest json() throws JSONException {
+        return StartupManifest.load(this.manifestText, null, "android");
+    }
+}
@@ -0,0 +1,73 @@
+package com.manifoldjs.hostedwebapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+
+/**
+* Reading UTF-8 scripts and manifests from streams.
+*
+* The content mixes ASCII with multi-byte characters, which also end up split across read
+* buffers. inputStreamReader reads the same content with a fresh InputStreamReader and
+* StringBuilder, for comparison.
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamReaderBenchmark {
+    @Param({ "1024", "65536", "1048576", "8388608" })
+    public int size;
+
+    private byte[] content;
+
+    @Setup
+    public void setUp() throws IOException {
+        StringBuilder text = new StringBuilder(this.size);
+        int line = 0;
+        while (text.length() < this.size) {
+            text.append("window.strings[").append(line).append("] = \"Ünïcödé ✓ 日本語 😀\";\n");
+            line++;
+        }
+
+        this.content = text.toString().getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public String streamReader() throws IOException {
+        return StreamReader.read(new ByteArrayInputStream(this.content), Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public String inputStreamReader() throws IOException {
+        Reader reader = new InputStreamReader(new ByteArrayInputStream(this.content), "UTF-8");
+        try {
+            StringBuilder result = new StringBuilder();
+            char[] buffer = new char[8 * 1024];
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                result.append(buffer, 0, count);
+            }
+
+            return result.toString();
+        } finally {
+            reader.close();
+        }
+    }
+}
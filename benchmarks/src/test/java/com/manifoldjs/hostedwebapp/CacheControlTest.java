@@ -0,0 +1,56 @@
+package com.manifoldjs.hostedwebapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CacheControlTest {
+    private static final long NOW = 1000000;
+
+    @Test
+    public void maxAgeMakesResponseFresh() {
+        assertEquals(NOW + 60000, CacheControl.parse("max-age=60").getExpiration(NOW));
+        assertEquals(NOW + 60000, CacheControl.parse("public, MAX-AGE=60").getExpiration(NOW));
+        assertEquals(NOW + 60000, CacheControl.parse("max-age=\"60\"").getExpiration(NOW));
+    }
+
+    @Test
+    public void noCacheWinsInAnyOrder() {
+        assertEquals(NOW, CacheControl.parse("max-age=60, no-cache").getExpiration(NOW));
+        assertEquals(NOW, CacheControl.parse("no-cache, max-age=60").getExpiration(NOW));
+        assertEquals(NOW, CacheControl.parse("public, max-age=60, No-Cache").getExpiration(NOW));
+    }
+
+    @Test
+    public void noStoreWinsInAnyOrder() {
+        CacheControl afterMaxAge = CacheControl.parse("max-age=60, no-store");
+        CacheControl beforeMaxAge = CacheControl.parse("no-store, max-age=60");
+        assertTrue(afterMaxAge.noStore);
+        assertTrue(beforeMaxAge.noStore);
+        assertEquals(NOW, afterMaxAge.getExpiration(NOW));
+        assertEquals(NOW, beforeMaxAge.getExpiration(NOW));
+    }
+
+    @Test
+    public void directivesMatchWholeTokens() {
+        CacheControl cacheControl = CacheControl.parse("max-age=60, x-no-store-hint, private=\"no-store, no-cache\"");
+        assertFalse(cacheControl.noStore);
+        assertFalse(cacheControl.noCache);
+        assertEquals(NOW + 60000, cacheControl.getExpiration(NOW));
+    }
+
+    @Test
+    public void missingOrInvalidMaxAgeIsStale() {
+        assertEquals(NOW, CacheControl.parse(null).getExpiration(NOW));
+        assertEquals(NOW, CacheControl.parse("public").getExpiration(NOW));
+        assertEquals(NOW, CacheControl.parse("max-age=soon").getExpiration(NOW));
+        assertEquals(NOW, CacheControl.parse("max-age=-5").getExpiration(NOW));
+    }
+
+    @Test
+    public void firstMaxAgeIsUsed() {
+        assertEquals(NOW + 10000, CacheControl.parse("max-age=10, max-age=60").getExpiration(NOW));
+    }
+}
@@ -0,0 +1,31 @@
+package com.manifoldjs.hostedwebapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryTrimTest {
+    @Test
+    public void shrinksWhileMemoryIsModeratelyLow() {
+        assertFalse(MemoryTrim.shouldClear(MemoryTrim.RUNNING_MODERATE));
+    }
+
+    @Test
+    public void shrinksWhenUiIsHidden() {
+        assertFalse(MemoryTrim.shouldClear(MemoryTrim.UI_HIDDEN));
+    }
+
+    @Test
+    public void clearsWhileMemoryIsLowOrCritical() {
+        assertTrue(MemoryTrim.shouldClear(MemoryTrim.RUNNING_LOW));
+        assertTrue(MemoryTrim.shouldClear(MemoryTrim.RUNNING_CRITICAL));
+    }
+
+    @Test
+    public void clearsInBackground() {
+        assertTrue(MemoryTrim.shouldClear(MemoryTrim.BACKGROUND));
+        assertTrue(MemoryTrim.shouldClear(MemoryTrim.MODERATE));
+        assertTrue(MemoryTrim.shouldClear(MemoryTrim.COMPLETE));
+    }
+}
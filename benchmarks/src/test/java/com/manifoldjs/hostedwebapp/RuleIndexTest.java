@@ -0,0 +1,109 @@
+package com.manifoldjs.hostedwebapp;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+* Matches pages against the match lists of manifest rules. The expected results are the ones of
+* org.apache.cordova.Whitelist, which HostedWebApp used for each rule before RuleIndex: a URL
+* matches when any entry matches it, an empty list or a "*" entry matches every URL, and entries
+* that the Whitelist cannot register match nothing.
+*/
+@RunWith(Parameterized.class)
+public class RuleIndexTest {
+    @Parameters(name = "{0} {1}")
+    public static Collection<Object[]> cases() {
+        return Arrays.asList(new Object[][] {
+                // wildcard hosts apply to the domain and all its subdomains, over HTTP and HTTPS
+                { entries("*.example.com"), "https://example.com/", true },
+                { entries("*.example.com"), "https://www.example.com/page", true },
+                { entries("*.example.com"), "http://a.b.example.com/", true },
+                { entries("*.example.com"), "https://WWW.Example.COM/", true },
+                { entries("*.example.com"), "https://badexample.com/", false },
+                { entries("*.example.com"), "https://example.com.evil.net/", false },
+                { entries("*.example.com"), "ftp://www.example.com/", false },
+                { entries("https://*.example.com/*"), "http://www.example.com/", false },
+                { entries("https://*/*"), "https://anything.net/page", true },
+
+                // ports must be given in the URL; a default port is not implied
+                { entries("https://example.com/*"), "https://example.com:8443/app", true },
+                { entries("https://example.com:8443/*"), "https://example.com:8443/app", true },
+                { entries("https://example.com:8443/*"), "https://example.com/app", false },
+                { entries("https://example.com:443/*"), "https://example.com/", false },
+                { entries("https://example.com:443/*"), "https://example.com:443/", true },
+                { entries("http://example.com:*/*"), "http://example.com/", false },
+
+                // "*" and empty entries
+                { entries("*"), "https://anything.org/", true },
+                { entries("*"), "file:///android_asset/www/index.html", true },
+                { entries("*"), "data:text/html,hello", true },
+                { entries("https://example.com/*", "*"), "https://other.org/", true },
+                { entries(), "https://other.org/", true },
+                { entries(""), "https://example.com/", false },
+                { entries("", "https://example.com/*"), "https://example.com/", true },
+                { entries("", "https://example.com/*"), "https://other.org/", false },
+
+                // entries without a scheme apply to HTTP and HTTPS on any port
+                { entries("example.com"), "http://example.com/any/page", true },
+                { entries("example.com"), "https://example.com:8080/", true },
+                { entries("example.com"), "ftp://example.com/", false },
+                { entries("example.com"), "https://www.example.com/", false },
+                { entries("example.com/docs/*"), "https://example.com/docs/intro", true },
+                { entries("example.com/docs/*"), "https://example.com/blog/", false },
+
+                // paths are matched whole, decoded and without the query or fragment
+                { entries("https://example.com/app/*"), "https://example.com/app/", true },
+                { entries("https://example.com/app/*"), "https://example.com/app/page?query=1#top", true },
+                { entries("https://example.com/app/*"), "https://example.com/application", false },
+                { entries("https://example.com/app/*"), "https://example.com/app", false },
+                { entries("https://example.com/app*"), "https://example.com/application", true },
+                { entries("https://example.com/app"), "https://example.com/app?query=1", true },
+                { entries("https://example.com/app"), "https://example.com/app/", false },
+                { entries("https://example.com/a.html"), "https://example.com/aXhtml", false },
+                { entries("https://example.com/a b/*"), "https://example.com/a%20b/c", true },
+                { entries("https://example.com/*"), "https://example.com", true },
+
+                // file: URLs have no host, and data: URLs have neither host nor path
+                { entries("file:///*"), "file:///android_asset/www/index.html", true },
+                { entries("file:///*"), "https://example.com/", false },
+                { entries("file:///android_asset/www/*"), "file:///android_asset/www/index.html", true },
+                { entries("file:///android_asset/www/*"), "file:///data/data/app/index.html", false },
+                { entries("data:*"), "data:text/html,hello", true },
+                { entries("https://*/*"), "data:text/html,hello", false },
+                { entries("data:text/*"), "data:text/html,hello", false },
+                { entries("*.example.com"), "data:text/html,hello", false },
+        });
+    }
+
+    private final JSONArray entries;
+    private final String url;
+    private final boolean expected;
+
+    public RuleIndexTest(JSONArray entries, String url, boolean expected) {
+        this.entries = entries;
+        this.url = url;
+        this.expected = expected;
+    }
+
+    @Test
+    public void matchesLikeWhitelist() throws JSONException {
+        JSONObject rule = new JSONObject().put("match", this.entries).put("access", "cordova");
+        JSONObject manifest = new JSONObject().put("mjs_api_access", new JSONArray().put(rule));
+
+        assertEquals(this.expected, RuleIndex.compile(manifest, "android").match(this.url).apiAccess);
+    }
+
+    private static JSONArray entries(String... entries) {
+        return new JSONArray(Arrays.asList(entries));
+    }
+}
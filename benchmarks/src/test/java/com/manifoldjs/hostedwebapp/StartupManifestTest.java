@@ -0,0 +1,69 @@
+package com.manifoldjs.hostedwebapp;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StartupManifestTest {
+    private static final String MANIFEST = "{\"start_url\": \"https://example.com/json/\"}";
+
+    private static String runtimeManifest(String compiledFrom) {
+        byte[] source = compiledFrom.getBytes(StandardCharsets.UTF_8);
+        return RuntimeManifest.FORMAT + "\t" + RuntimeManifest.VERSION + "\n"
+                + "source\t" + source.length + "\t" + RuntimeManifest.hash(source) + "\n"
+                + "start_url\thttps://example.com/runtime/\n";
+    }
+
+    @Test
+    public void matchingRuntimeManifestIsLoadedWithoutParsing() throws JSONException {
+        StartupManifest manifest = StartupManifest.load(MANIFEST, runtimeManifest(MANIFEST), "android");
+
+        assertFalse(manifest.isParsed());
+        assertEquals("https://example.com/runtime/", manifest.settings.startUrl);
+    }
+
+    @Test
+    public void invalidJsonIsNotReadAtStartup() throws JSONException {
+        String invalid = "{ not json";
+        StartupManifest manifest = StartupManifest.load(invalid, runtimeManifest(invalid), "android");
+
+        assertFalse(manifest.isParsed());
+        assertNull(manifest.getJson());
+    }
+
+    @Test
+    public void jsonIsParsedOnFirstRequest() throws JSONException {
+        StartupManifest manifest = StartupManifest.load(MANIFEST, runtimeManifest(MANIFEST), "android");
+
+        assertEquals("https://example.com/json/", manifest.getJson().getString("start_url"));
+        assertTrue(manifest.isParsed());
+        assertTrue(manifest.getJson() == manifest.getJson());
+    }
+
+    @Test
+    public void staleRuntimeManifestFallsBackToJson() throws JSONException {
+        StartupManifest manifest = StartupManifest.load(MANIFEST, runtimeManifest("{}"), "android");
+
+        assertTrue(manifest.isParsed());
+        assertEquals("https://example.com/json/", manifest.settings.startUrl);
+    }
+
+    @Test
+    public void missingRuntimeManifestFallsBackToJson() throws JSONException {
+        StartupManifest manifest = StartupManifest.load(MANIFEST, null, "android");
+
+        assertTrue(manifest.isParsed());
+        assertEquals("https://example.com/json/", manifest.settings.startUrl);
+    }
+
+    @Test(expected = JSONException.class)
+    public void invalidJsonFailsWithoutRuntimeManifest() throws JSONException {
+        StartupManifest.load("{ not json", null, "android");
+    }
+}
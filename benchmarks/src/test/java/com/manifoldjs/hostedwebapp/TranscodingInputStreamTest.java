@@ -0,0 +1,46 @@
+package com.manifoldjs.hostedwebapp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TranscodingInputStreamTest {
+    @Test
+    public void convertsLatin1() throws IOException {
+        assertEquals("caf\u00e9", transcode("caf\u00e9", "ISO-8859-1"));
+    }
+
+    @Test
+    public void convertsShiftJis() throws IOException {
+        assertEquals("<title>\u65e5\u672c\u8a9e\u306e\u30da\u30fc\u30b8</title>", transcode("<title>\u65e5\u672c\u8a9e\u306e\u30da\u30fc\u30b8</title>", "Shift_JIS"));
+    }
+
+    @Test
+    public void keepsSurrogatePairsAcrossBuffers() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            text.append(i % 3 == 0 ? "a\ud83d\ude00" : "\ud83d\ude00");
+        }
+
+        assertEquals(text.toString(), transcode(text.toString(), "UTF-16BE"));
+    }
+
+    @Test
+    public void leavesUtf8AndUnknownCharsetsUnchanged() {
+        InputStream input = new ByteArrayInputStream(new byte[0]);
+        assertSame(input, TranscodingInputStream.toUtf8(input, "utf-8"));
+        assertSame(input, TranscodingInputStream.toUtf8(input, null));
+        assertSame(input, TranscodingInputStream.toUtf8(input, "no-such-charset"));
+        assertSame(input, TranscodingInputStream.toUtf8(input, "bad name"));
+    }
+
+    private static String transcode(String text, String charset) throws IOException {
+        InputStream input = TranscodingInputStream.toUtf8(new ByteArrayInputStream(text.getBytes(charset)), charset);
+        return StreamReader.read(input);
+    }
+}
@@ -8,6 +8,7 @@ var assert = require('assert');
 
 var path = require('path');
 var fs = require('fs');
+var crypto = require('crypto');
 
 var assetsDirectory = path.join(__dirname, 'assets');
 var workingDirectory = path.join(__dirname, 'tmp');
@@ -332,6 +333,66 @@ describe('updateConfigurationBeforePrepare.js', function (){
     });
   });
 
+  it('Should write the runtime manifest compiled from manifest.json for Android', function (done){
+    var testDir = path.join(workingDirectory, 'runtimeManifest');
+    var runtimeManifestPath = path.join(testDir, 'www', 'manifest.runtime');
+    var ctx = initializeContext(testDir);
+
+    updateConfiguration(ctx).then(function () {
+      var manifestJson = fs.readFileSync(path.join(testDir, 'www', 'manifest.json'));
+      var content = fs.readFileSync(runtimeManifestPath).toString();
+      var lines = content.split('\n');
+
+      assert.equal(lines[0], 'hostedwebapp-runtime\t2');
+      assert.equal(lines[1], 'source\t' + manifestJson.length + '\t' + crypto.createHash('sha1').update(manifestJson).digest('hex'));
+      assert(lines.indexOf('start_url\thttp://wat-docs.azurewebsites.net/') > 0);
+      assert(lines.indexOf('scope\t/docs/') > 0);
+      assert(lines.indexOf('scope_rule\thttp://wat.codeplex.com') > 0);
+      assert(lines.indexOf('cordova\tserver\thttp://wat-docs.azurewebsites.net/cordova/\tpage_finished') > 0);
+      assert(lines.indexOf('offline\t1\t0\t') > 0);
+      assert(lines.indexOf('api\tcordova\thttp://wat-docs.azurewebsites.net/*') > 0);
+      assert(lines.indexOf('api\tnone\thttp://wat-docs.azurewebsites.net/private/*\thttp://wat.codeplex.com/*') > 0);
+      assert(lines.indexOf('script\tjs/app.js\thttp://wat-docs.azurewebsites.net/*') > 0);
+      assert(content.indexOf('/ios/*') === -1);
+
+      done();
+    });
+  });
+
+  it('Should not compile a runtime manifest with values that contain tabs or line breaks', function (){
+    var manifest = { 'start_url': 'http://wat-docs.azurewebsites.net/', 'mjs_extended_scope': [ 'http://wat.\ncodeplex.com' ], 'scope': 'docs\ttest' };
+
+    assert.strictEqual(updateConfiguration.compileRuntimeManifest(JSON.stringify(manifest), manifest, 'android'), undefined);
+  });
+
+  it('Should write the connection policy and the non-essential scripts to the runtime manifest', function (){
+    var manifest = {
+      'start_url': 'http://wat-docs.azurewebsites.net/',
+      'mjs_import_scripts': [
+        { 'src': 'http://wat-docs.azurewebsites.net/js/analytics.js', 'match': 'http://wat-docs.azurewebsites.net/*', 'essential': false },
+        { 'src': 'js/app.js', 'match': 'http://wat-docs.azurewebsites.net/*' }
+      ],
+      'mjs_connection_policy': { 'slow': [ '2G', '3g' ] }
+    };
+
+    var lines = updateConfiguration.compileRuntimeManifest(JSON.stringify(manifest), manifest, 'android').split('\n');
+
+    assert(lines.indexOf('non_essential\thttp://wat-docs.azurewebsites.net/js/analytics.js') > 0);
+    assert(lines.indexOf('non_essential\tjs/app.js') === -1);
+    assert(lines.indexOf('slow_connection\t2g') > 0);
+    assert(lines.indexOf('slow_connection\t3g') > 0);
+    assert(lines.indexOf('fast_connection\twifi') > 0);
+    assert(lines.indexOf('fast_connection\tethernet') > 0);
+  });
+
+  it('Should not write connection types to the runtime manifest without a connection policy', function (){
+    var manifest = { 'start_url': 'http://wat-docs.azurewebsites.net/' };
+
+    var content = updateConfiguration.compileRuntimeManifest(JSON.stringify(manifest), manifest, 'android');
+
+    assert.equal(content.indexOf('_connection\t'), -1);
+  });
+
   afterEach(function () {
     tu.deleteRecursiveSync(workingDirectory);
   });
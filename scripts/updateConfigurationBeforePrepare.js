@@ -2,6 +2,7 @@
 
 var fs = require('fs'),
     path = require('path'),
+    crypto = require('crypto'),
     url = require('url'),
     downloader = require('./downloader'),
     createConfigParser = require('./createConfigParser'),
@@ -12,6 +13,8 @@ var fs = require('fs'),
     config,
     etree;
 
+var RUNTIME_MANIFEST_VERSION = 2;
+
 var logger = {
   log: function () {
     if (process.env.NODE_ENV !== 'test') {
@@ -191,6 +194,213 @@ function processAccessRules(manifest) {
     }
 }
 
+// Same semantics as String.trim in Java
+function trimValue(value) {
+    return value.replace(/^[\u0000-\u0020]+|[\u0000-\u0020]+$/g, '');
+}
+
+function isObject(value) {
+    return !!value && typeof value === 'object' && !(value instanceof Array);
+}
+
+// Compiles the manifest settings that the plugin needs at startup for a platform, with the same
+// rules that the plugin applies to manifest.json. Returns undefined if a setting cannot be
+// represented, in which case the plugin loads manifest.json instead.
+function compileRuntimeManifest(manifestJson, manifest, platform) {
+    var lines = [];
+    var valid = true;
+
+    // values are trimmed strings, without tabs or line breaks
+    function getString(value, defaultValue) {
+        if (value === undefined) {
+            return defaultValue;
+        }
+
+        if (typeof value === 'number' || typeof value === 'boolean') {
+            value = String(value);
+        }
+
+        if (typeof value !== 'string' || /[\t\r\n]/.test(trimValue(value))) {
+            valid = false;
+            return defaultValue;
+        }
+
+        return trimValue(value);
+    }
+
+    function getBoolean(value, defaultValue) {
+        if (typeof value === 'string') {
+            value = value.toLowerCase() === 'true' ? true : value.toLowerCase() === 'false' ? false : value;
+        }
+
+        return typeof value === 'boolean' ? value : defaultValue;
+    }
+
+    function getInteger(value) {
+        var number = typeof value === 'string' && trimValue(value).length ? Number(value) : value;
+        if (typeof number !== 'number' || !isFinite(number)) {
+            return '';
+        }
+
+        return String(number < 0 ? Math.ceil(number) : Math.floor(number));
+    }
+
+    function getMatchEntries(rule) {
+        if (rule.match instanceof Array) {
+            return rule.match.map(function (entry) {
+                return getString(entry, '');
+            });
+        }
+
+        var match = getString(rule.match, '');
+        return match.length ? [match] : [];
+    }
+
+    function isPlatformMatch(rule) {
+        var platforms = getString(rule.platform, '');
+        return !platforms.length || platforms.split(',').some(function (item) {
+            return trimValue(item).toLowerCase() === platform;
+        });
+    }
+
+    function addLine(values) {
+        lines.push(values.join('\t'));
+    }
+
+    addLine(['hostedwebapp-runtime', RUNTIME_MANIFEST_VERSION]);
+    addLine(['source', Buffer.byteLength(manifestJson, 'utf8'), crypto.createHash('sha1').update(manifestJson, 'utf8').digest('hex')]);
+    addLine(['start_url', getString(manifest.start_url, '')]);
+    addLine(['scope', getString(manifest.scope, '')]);
+
+    if (manifest.mjs_extended_scope instanceof Array) {
+        manifest.mjs_extended_scope.forEach(function (item) {
+            var rule = getString(item, '');
+            if (rule.length) {
+                addLine(['scope_rule', rule]);
+            }
+        });
+    }
+
+    if (manifest.mjs_access_whitelist instanceof Array) {
+        manifest.mjs_access_whitelist.forEach(function (item) {
+            var rule = isObject(item) ? getString(item.url, '') : '';
+            if (rule.length) {
+                addLine(['scope_rule', rule]);
+            }
+        });
+    }
+
+    var pluginMode = 'client';
+    var baseUrl = '/';
+    var injectionMode = 'page_finished';
+    if (isObject(manifest.mjs_cordova)) {
+        pluginMode = getString(manifest.mjs_cordova.plugin_mode, 'client');
+        baseUrl = getString(manifest.mjs_cordova.base_url, '');
+        if (baseUrl.charAt(baseUrl.length - 1) !== '/') {
+            baseUrl += '/';
+        }
+
+        injectionMode = getString(manifest.mjs_cordova.injection_mode, injectionMode);
+    }
+
+    addLine(['cordova', pluginMode, baseUrl, injectionMode]);
+
+    var offlineSettings = isObject(manifest.mjs_offline_feature) ? manifest.mjs_offline_feature : undefined;
+    var offlineFeature = offlineSettings ? getBoolean(offlineSettings.enabled, true) : getBoolean(manifest.mjs_offline_feature, true);
+    var offlineCache = (offlineSettings && getBoolean(offlineSettings.cache, false)) || manifest.mjs_precache instanceof Array;
+    addLine(['offline', offlineFeature ? 1 : 0, offlineCache ? 1 : 0, offlineCache && offlineSettings ? getInteger(offlineSettings.cache_size_mb) : '']);
+
+    if (offlineCache) {
+        var precache = [];
+        if (manifest.icons instanceof Array) {
+            manifest.icons.forEach(function (icon) {
+                if (isObject(icon)) {
+                    precache.push(getString(icon.src, ''));
+                }
+            });
+        }
+
+        if (manifest.mjs_precache instanceof Array) {
+            manifest.mjs_precache.forEach(function (item) {
+                precache.push(getString(item, ''));
+            });
+        }
+
+        precache.forEach(function (item) {
+            if (item.length) {
+                addLine(['precache', item]);
+            }
+        });
+    }
+
+    if (manifest.mjs_api_access instanceof Array) {
+        manifest.mjs_api_access.forEach(function (rule) {
+            if (isObject(rule) && isPlatformMatch(rule)) {
+                var access = getString(rule.access, 'cordova').toLowerCase();
+                if (access === 'cordova' || access === 'none') {
+                    addLine(['api', access].concat(getMatchEntries(rule)));
+                } else {
+                    logger.warn('WARNING: Unsupported API access type \'' + access + '\' found in mjs_api_access rule.');
+                }
+            }
+        });
+    }
+
+    if (manifest.mjs_import_scripts instanceof Array) {
+        manifest.mjs_import_scripts.forEach(function (rule) {
+            var src = isObject(rule) ? getString(rule.src, '') : '';
+            if (src.length) {
+                addLine(['script', src].concat(getMatchEntries(rule)));
+                if (!getBoolean(rule.essential, true)) {
+                    addLine(['non_essential', src]);
+                }
+            }
+        });
+    }
+
+    // connection types are only written when the manifest has a policy, with the defaults for the missing lists
+    if (isObject(manifest.mjs_connection_policy)) {
+        var addConnectionTypes = function (key, types, defaultTypes) {
+            (types instanceof Array ? types : defaultTypes).forEach(function (type) {
+                type = getString(type, '').toLowerCase();
+                if (type.length) {
+                    addLine([key, type]);
+                }
+            });
+        };
+
+        addConnectionTypes('slow_connection', manifest.mjs_connection_policy.slow, ['2g']);
+        addConnectionTypes('fast_connection', manifest.mjs_connection_policy.fast, ['wifi', 'ethernet']);
+    }
+
+    return valid ? lines.join('\n') + '\n' : undefined;
+}
+
+// Writes the runtime manifest that the Android plugin loads at startup instead of parsing manifest.json
+function writeRuntimeManifest(manifestJson, manifest) {
+    var deferral = new Q.defer();
+    pendingTasks.push(deferral.promise);
+
+    var runtimeManifestPath = path.join(projectRoot, 'www', 'manifest.runtime');
+    var runtimeManifest = compileRuntimeManifest(manifestJson, manifest, 'android');
+    if (!runtimeManifest) {
+        logger.warn('WARNING: The manifest has settings that cannot be precompiled. The app will load manifest.json at startup.');
+        fs.unlink(runtimeManifestPath, function () {
+            deferral.resolve();
+        });
+
+        return;
+    }
+
+    fs.writeFile(runtimeManifestPath, runtimeManifest, function (err) {
+        if (err) {
+            logger.warn('WARNING: Failed to write the runtime manifest to \'' + runtimeManifestPath + '\' - ' + err.message);
+        }
+
+        deferral.resolve();
+    });
+}
+
 function getFormatFromIcon(icon) {
   return icon.type || (icon.src && icon.src.split('.').pop());
 }
@@ -651,6 +861,9 @@ module.exports = function (context) {
         // configure access rules
         processAccessRules(manifest);
 
+        // precompile the settings that the plugin needs at startup
+        writeRuntimeManifest(manifestJson, manifest);
+
         // Obtain and download the icons and splash screens specified in the manifest.
         // Currently, splash screens specified in the splash_screens section of the manifest 
         // take precedence over similarly sized splash screens in the icons section.
@@ -675,3 +888,5 @@ module.exports = function (context) {
 
     return task.promise;
 }
+
+module.exports.compileRuntimeManifest = compileRuntimeManifest;
@@ -0,0 +1,79 @@
+package com.manifoldjs.hostedwebapp;
+
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+* Index of the files packaged in the www folder of the app.
+*
+* The packaged assets do not change while the app is running, so each folder is listed at most
+* once and its contents are kept as an immutable set.
+*/
+class AssetIndex {
+    private static final String LOG_TAG = "HostedWebApp";
+    private static final String ROOT = "www";
+
+    private final AssetManager assetManager;
+    private final ConcurrentHashMap<String, Set<String>> folders = new ConcurrentHashMap<String, Set<String>>();
+
+    AssetIndex(AssetManager assetManager) {
+        this.assetManager = assetManager;
+    }
+
+    /**
+    * Returns whether a file exists, given its path relative to the www folder.
+    */
+    boolean exists(String path) {
+        if (path.isEmpty() || path.startsWith("/") || path.contains("..")) {
+            return false;
+        }
+
+        int separator = path.lastIndexOf('/');
+        String folder = separator >= 0 ? ROOT + "/" + path.substring(0, separator) : ROOT;
+        return this.list(folder).contains(path.substring(separator + 1));
+    }
+
+    /**
+    * Forgets the folder listings, which are read again as they are needed.
+    */
+    void clear() {
+        this.folders.clear();
+    }
+
+    /**
+    * Approximate size of the folder listings, counting the characters of the file names.
+    */
+    long getRetainedBytes() {
+        long bytes = 0;
+        for (Set<String> files : this.folders.values()) {
+            for (String file : files) {
+                bytes += file.length() * 2;
+            }
+        }
+
+        return bytes;
+    }
+
+    private Set<String> list(String folder) {
+        Set<String> files = this.folders.get(folder);
+        if (files == null) {
+            try {
+                files = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(this.assetManager.list(folder))));
+            } catch (IOException e) {
+                Log.v(LOG_TAG, String.format("ERROR: failed to list assets folder: '%s'", folder));
+                files = Collections.emptySet();
+            }
+
+            this.folders.putIfAbsent(folder, files);
+        }
+
+        return files;
+    }
+}
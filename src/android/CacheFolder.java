@@ -0,0 +1,175 @@
+package com.manifoldjs.hostedwebapp;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+* Folder in the app cache that stores files by URL and is kept within a size budget.
+*
+* The files of an entry share a name derived from its URL and differ in their extension.
+* Entries are evicted least recently used first. The folder is listed once, the first time an
+* entry is stored, and the sizes and last use of the entries are tracked in memory afterwards.
+* Temporary files, whose extension starts with .tmp, are never counted or evicted, since they
+* may still be being written.
+*/
+class CacheFolder {
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private static final class Group {
+        final List<File> files = new ArrayList<File>();
+        long size;
+        long lastUsed;
+    }
+
+    private final File folder;
+    private final long maxBytes;
+
+    // null until the folder is listed
+    private Map<String, Group> groups;
+    private long size;
+
+    CacheFolder(File cacheDir, String name, long maxBytes) {
+        this.folder = new File(cacheDir, name);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+    * Called with the key of each entry that is evicted to fit the budget.
+    */
+    void evicted(String key) {
+    }
+
+    File getFile(String url, String extension) {
+        return new File(this.folder, getKey(url) + extension);
+    }
+
+    boolean ensureExists() {
+        return this.folder.exists() || this.folder.mkdirs();
+    }
+
+    /**
+    * Marks an entry file as recently used.
+    */
+    void touch(File file) {
+        long now = System.currentTimeMillis();
+        file.setLastModified(now);
+        synchronized (this) {
+            Group group = this.groups != null ? this.groups.get(getGroupKey(file.getName())) : null;
+            if (group != null) {
+                group.lastUsed = now;
+            }
+        }
+    }
+
+    /**
+    * Accounts for the files of an entry that was just stored, and evicts the least recently used
+    * entries until the folder fits in its budget.
+    */
+    synchronized void trim(String url, File... files) {
+        if (this.groups == null) {
+            this.groups = this.list();
+        }
+
+        String key = getKey(url);
+        Group previous = this.groups.remove(key);
+        if (previous != null) {
+            this.size -= previous.size;
+        }
+
+        Group stored = new Group();
+        stored.lastUsed = System.currentTimeMillis();
+        for (File file : files) {
+            stored.files.add(file);
+            stored.size += file.length();
+        }
+
+        this.groups.put(key, stored);
+        this.size += stored.size;
+        if (this.size <= this.maxBytes) {
+            return;
+        }
+
+        List<Map.Entry<String, Group>> entries = new ArrayList<Map.Entry<String, Group>>(this.groups.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Group>>() {
+            @Override
+            public int compare(Map.Entry<String, Group> lhs, Map.Entry<String, Group> rhs) {
+                long left = lhs.getValue().lastUsed;
+                long right = rhs.getValue().lastUsed;
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+
+        for (Map.Entry<String, Group> entry : entries) {
+            if (this.size <= this.maxBytes) {
+                break;
+            }
+
+            for (File file : entry.getValue().files) {
+                file.delete();
+            }
+
+            this.groups.remove(entry.getKey());
+            this.size -= entry.getValue().size;
+            this.evicted(entry.getKey());
+        }
+    }
+
+    // groups the files of the folder by entry, leaving out temporary files
+    private Map<String, Group> list() {
+        Map<String, Group> groups = new HashMap<String, Group>();
+        File[] files = this.folder.listFiles();
+        if (files == null) {
+            return groups;
+        }
+
+        for (File file : files) {
+            String name = file.getName();
+            if (name.contains(TEMP_EXTENSION)) {
+                continue;
+            }
+
+            String key = getGroupKey(name);
+            Group group = groups.get(key);
+            if (group == null) {
+                group = new Group();
+                groups.put(key, group);
+            }
+
+            group.files.add(file);
+            group.size += file.length();
+            group.lastUsed = Math.max(group.lastUsed, file.lastModified());
+            this.size += file.length();
+        }
+
+        return groups;
+    }
+
+    private static String getGroupKey(String fileName) {
+        int extension = fileName.indexOf('.');
+        return extension >= 0 ? fileName.substring(0, extension) : fileName;
+    }
+
+    static String getKey(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(String.format("%02x", b));
+            }
+
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        } catch (UnsupportedEncodingException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.manifoldjs.hostedwebapp;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+* Warms up the origins that the plugin and the WebView are about to request, so the DNS lookups
+* and handshakes overlap with the startup of the WebView.
+*
+* The origins of the remote import scripts, which the plugin downloads itself, are sent a HEAD
+* request. The response is consumed without disconnecting, which leaves the connection in the
+* keep-alive pool of HttpURLConnection, so the script requests that follow skip the TCP and TLS
+* handshakes. The origins that only the WebView loads, such as the start page, are only resolved:
+* the WebView keeps its own connection pool and could not reuse a connection opened here, but it
+* shares the cache of the system resolver. An origin is warmed up once, unless the attempt fails.
+*/
+class ConnectionWarmer {
+    private static final String LOG_TAG = "HostedWebApp";
+    private static final int WARMUP_TIMEOUT = 5000;
+
+    private final Executor executor;
+    private final Set<String> resolved = Collections.synchronizedSet(new HashSet<String>());
+    private final Set<String> connected = Collections.synchronizedSet(new HashSet<String>());
+
+    ConnectionWarmer(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+    * Starts resolving the host names of the given URLs; relative and non-HTTP URLs are ignored.
+    */
+    void resolve(List<String> urls) {
+        for (String url : urls) {
+            final URL origin = UrlParts.getOrigin(url);
+            if (origin != null && !this.connected.contains(origin.toString()) && this.resolved.add(origin.toString())) {
+                this.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        ConnectionWarmer.this.resolve(origin);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+    * Starts opening connections to the origins of the given URLs, which the plugin requests
+    * itself; relative and non-HTTP URLs are ignored.
+    */
+    void connect(List<String> urls) {
+        for (String url : urls) {
+            final URL origin = UrlParts.getOrigin(url);
+            if (origin != null && this.connected.add(origin.toString())) {
+                this.executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (ConnectionWarmer.this.resolve(origin)) {
+                            ConnectionWarmer.this.connect(origin);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private boolean resolve(URL origin) {
+        long start = Metrics.start("warmup.dns");
+        try {
+            InetAddress.getAllByName(origin.getHost());
+            Log.v(LOG_TAG, String.format("Resolved '%s'", origin.getHost()));
+            return true;
+        } catch (IOException e) {
+            Log.v(LOG_TAG, String.format("Failed to resolve '%s'", origin.getHost()));
+            this.failed(origin);
+            return false;
+        } finally {
+            Metrics.end("warmup.dns", start);
+        }
+    }
+
+    private void connect(URL origin) {
+        long start = Metrics.start("warmup.connect");
+        HttpURLConnection urlConnection = null;
+        try {
+            // the script requests do not send a user agent either
+            urlConnection = ResourceLoader.openConnection(origin.toString(), null);
+            urlConnection.setConnectTimeout(WARMUP_TIMEOUT);
+            urlConnection.setReadTimeout(WARMUP_TIMEOUT);
+            urlConnection.setUseCaches(false);
+            urlConnection.setInstanceFollowRedirects(false);
+            urlConnection.setRequestMethod("HEAD");
+
+            // closing the consumed response returns the connection to the pool
+            int responseCode = urlConnection.getResponseCode();
+            InputStream body = responseCode < 400 ? urlConnection.getInputStream() : urlConnection.getErrorStream();
+            if (body != null) {
+                body.close();
+            }
+
+            Log.v(LOG_TAG, String.format("Connection to '%s' warmed up", origin));
+        } catch (IOException e) {
+            Log.v(LOG_TAG, String.format("Failed to warm up connection to '%s': %s", origin, e.getMessage()));
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+
+            this.failed(origin);
+        } finally {
+            Metrics.end("warmup.connect", start);
+        }
+    }
+
+    // a later manifest load tries the origin again
+    private void failed(URL origin) {
+        Metrics.count("warmup.failed");
+        this.resolved.remove(origin.toString());
+        this.connected.remove(origin.toString());
+    }
+}
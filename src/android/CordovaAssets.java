@@ -0,0 +1,121 @@
+package com.manifoldjs.hostedwebapp;
+
+import android.content.res.AssetManager;
+import android.net.Uri;
+import android.util.Log;
+
+import org.apache.cordova.CordovaResourceApi;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+* Serves the Cordova files requested by pages in server plugin mode from the app package.
+*
+* Requests under the base URL of the Cordova files are answered with the matching files of the
+* www folder, so only the files that are not packaged with the app are downloaded from the site.
+* Scripts are kept in the script cache, as they are requested again on every page.
+*/
+class CordovaAssets {
+    private static final String LOG_TAG = "HostedWebApp";
+    private static final String PLUGINS_FOLDER = "plugins/";
+
+    private final Uri baseUri;
+    private final boolean pageRelative;
+    private final String platform;
+    private final AssetIndex assetIndex;
+    private final AssetManager assetManager;
+    private final ScriptCache scriptCache;
+
+    private CordovaAssets(Uri baseUri, boolean pageRelative, String platform, AssetIndex assetIndex, AssetManager assetManager, ScriptCache scriptCache) {
+        this.baseUri = baseUri;
+        this.pageRelative = pageRelative;
+        this.platform = platform;
+        this.assetIndex = assetIndex;
+        this.assetManager = assetManager;
+        this.scriptCache = scriptCache;
+    }
+
+    /**
+    * Creates the server for a base URL, resolved against the start URL if it is relative.
+    * Returns null if the base URL cannot be resolved.
+    */
+    static CordovaAssets create(String cordovaBaseUrl, String startUrl, String platform, AssetIndex assetIndex, AssetManager assetManager, ScriptCache scriptCache) {
+        try {
+            URL baseUrl = startUrl.isEmpty() ? new URL(cordovaBaseUrl) : new URL(new URL(startUrl), cordovaBaseUrl);
+
+            // the bridge resolves a path-relative base URL against each page
+            boolean pageRelative = !cordovaBaseUrl.startsWith("/") && !Uri.parse(cordovaBaseUrl).isAbsolute();
+            Uri baseUri = Uri.parse(baseUrl.toString());
+            if (pageRelative) {
+                baseUri = baseUri.buildUpon().path("/" + cordovaBaseUrl).build();
+            }
+
+            return new CordovaAssets(baseUri, pageRelative, platform, assetIndex, assetManager, scriptCache);
+        } catch (MalformedURLException e) {
+            Log.v(LOG_TAG, String.format("WARNING: Cordova files cannot be served from the app package, invalid base URL: '%s'", cordovaBaseUrl));
+            return null;
+        }
+    }
+
+    /**
+    * Returns the path in the www folder of the file requested, or null if it is not packaged.
+    */
+    String getAssetPath(Uri uri) {
+        String basePath = this.baseUri.getPath();
+        String path = uri.getPath();
+        if (path == null || basePath == null
+                || !this.baseUri.getScheme().equalsIgnoreCase(uri.getScheme())
+                || !this.baseUri.getAuthority().equalsIgnoreCase(uri.getAuthority())) {
+            return null;
+        }
+
+        int start = this.pageRelative ? path.indexOf(basePath) : (path.startsWith(basePath) ? 0 : -1);
+        if (start < 0) {
+            return null;
+        }
+
+        // the platform files are published with the platform in their names
+        String file = path.substring(start + basePath.length());
+        if (file.equals("cordova-" + this.platform + ".js")) {
+            file = "cordova.js";
+        } else if (file.equals("cordova_plugins-" + this.platform + ".js")) {
+            file = "cordova_plugins.js";
+        } else if (!file.startsWith(PLUGINS_FOLDER)) {
+            // other files of the site may share the base URL
+            return null;
+        }
+
+        return this.assetIndex.exists(file) ? file : null;
+    }
+
+    CordovaResourceApi.OpenForReadResult open(Uri uri, String assetPath) throws IOException {
+        String mimeType = getMimeType(assetPath);
+        if (assetPath.endsWith(".js")) {
+            byte[] content = this.scriptCache.get(assetPath).getBytes("UTF-8");
+            return new CordovaResourceApi.OpenForReadResult(uri, new ByteArrayInputStream(content), mimeType, content.length, null);
+        }
+
+        return new CordovaResourceApi.OpenForReadResult(uri, this.assetManager.open("www/" + assetPath), mimeType, -1, null);
+    }
+
+    private static String getMimeType(String path) {
+        if (path.endsWith(".js")) {
+            return "application/javascript";
+        }
+
+        if (path.endsWith(".css")) {
+            return "text/css";
+        }
+
+        if (path.endsWith(".json")) {
+            return "application/json";
+        }
+
+        String mimeType = URLConnection.guessContentTypeFromName(path);
+        return mimeType != null ? mimeType : "application/octet-stream";
+    }
+}
@@ -0,0 +1,328 @@
+package com.manifoldjs.hostedwebapp;
+
+import android.net.Uri;
+import android.util.Log;
+
+import org.apache.cordova.CordovaResourceApi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+* Injects the script bundle at the start of hosted documents.
+*
+* Top-level navigations to pages that match the manifest rules are opened by the plugin before
+* the WebView reads them, and the plugin inserts a script element right after the document's head
+* tag as the response streams through. The element references a bundle URL on the page's own
+* origin that the plugin also serves, so Cordova is available before any script of the page runs.
+* The WebView decodes the documents served by the plugin as UTF-8, so documents in another charset,
+* as given by their Content-Type header, are converted as they stream through.
+*
+* Responses given to the WebView cannot carry a status or headers, so the plugin only takes over
+* successful HTML responses without a Content-Security-Policy or CORS header, and redirects, which
+* it forwards. Any other response is left to the WebView, which requests the page again, and the
+* bundle is then injected when the page finishes loading. The bundle of a page is served once,
+* on the page's origin, and only after its document was served with the script element.
+*/
+class DocumentInjector {
+    private static final String LOG_TAG = "HostedWebApp";
+    private static final String BUNDLE_PATH = "/__hostedwebapp/bundle.js";
+    private static final String PAGE_PARAMETER = "page";
+    private static final int HEAD_SEARCH_LIMIT = 64 * 1024;
+    private static final int READ_TIMEOUT = 30000;
+    private static final int MAX_TRACKED_PAGES = 16;
+    private static final int MAX_OPENED_DOCUMENTS = 4;
+
+    private final String userAgent;
+    private final NavigationTracker navigations;
+
+    // pages served with the script element whose bundle has not been requested yet
+    private final BoundedCache<String, Boolean> pendingBundles = new BoundedCache<String, Boolean>(MAX_TRACKED_PAGES);
+
+    // pages whose bundle was served, until the page finishes loading
+    private final BoundedCache<String, Boolean> injectedPages = new BoundedCache<String, Boolean>(MAX_TRACKED_PAGES);
+
+    // documents opened when the request was remapped, until the WebView reads them
+    private final Map<String, CordovaResourceApi.OpenForReadResult> openedDocuments =
+            new LinkedHashMap<String, CordovaResourceApi.OpenForReadResult>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CordovaResourceApi.OpenForReadResult> eldest) {
+                    if (this.size() <= MAX_OPENED_DOCUMENTS) {
+                        return false;
+                    }
+
+                    closeQuietly(eldest.getValue().inputStream);
+                    return true;
+                }
+            };
+
+    DocumentInjector(String userAgent, NavigationTracker navigations) {
+        this.userAgent = userAgent;
+        this.navigations = navigations;
+    }
+
+    /**
+    * Returns whether the bundle was injected when the page was loaded, and forgets the page.
+    */
+    boolean takeInjectedPage(String url) {
+        return this.injectedPages.remove(NavigationTracker.normalize(url)) != null;
+    }
+
+    boolean isBundleRequest(Uri uri) {
+        return BUNDLE_PATH.equals(uri.getPath()) && uri.getQueryParameter(PAGE_PARAMETER) != null;
+    }
+
+    /**
+    * Returns the page of a bundle request, or null if the request does not come from the origin
+    * of a page that was served with the script element or the bundle was already served.
+    */
+    String takeBundlePage(Uri bundleUri) {
+        String page = bundleUri.getQueryParameter(PAGE_PARAMETER);
+        URL pageOrigin = UrlParts.getOrigin(page);
+        URL bundleOrigin = UrlParts.getOrigin(bundleUri.toString());
+        if (pageOrigin == null || bundleOrigin == null || !pageOrigin.toString().equalsIgnoreCase(bundleOrigin.toString())) {
+            Log.v(LOG_TAG, String.format("Rejected bundle request from another origin: '%s'", bundleUri));
+            return null;
+        }
+
+        String key = NavigationTracker.normalize(page);
+        if (this.pendingBundles.remove(key) == null) {
+            Log.v(LOG_TAG, String.format("Rejected bundle request for a page that was not injected: '%s'", page));
+            return null;
+        }
+
+        this.injectedPages.put(key, Boolean.TRUE);
+        return page;
+    }
+
+    /**
+    * Serves the bundle for a page returned by takeBundlePage.
+    */
+    CordovaResourceApi.OpenForReadResult openBundle(Uri uri, String bundle) throws UnsupportedEncodingException {
+        byte[] content = bundle.getBytes("UTF-8");
+        return new CordovaResourceApi.OpenForReadResult(uri, new ByteArrayInputStream(content), "application/javascript", content.length, null);
+    }
+
+    /**
+    * Opens a document and inserts the bundle script element into its head, keeping the result
+    * for takeDocument. Returns false if the WebView must load the document itself.
+    *
+    * If an offline cache is specified, the document is recorded in it and served from it when
+    * the network is not available.
+    */
+    boolean openDocument(Uri uri, String url, OfflineCache offlineCache, boolean online) {
+        CordovaResourceApi.OpenForReadResult result;
+        try {
+            result = this.loadDocument(uri, url, offlineCache, online);
+        } catch (IOException e) {
+            Log.v(LOG_TAG, String.format("Document not available, leaving it to the WebView: '%s'", url));
+            return false;
+        }
+
+        if (result == null) {
+            return false;
+        }
+
+        synchronized (this.openedDocuments) {
+            this.openedDocuments.put(uri.toString(), result);
+        }
+
+        return true;
+    }
+
+    /**
+    * Returns the document opened for a request by openDocument, or null if there is none.
+    */
+    CordovaResourceApi.OpenForReadResult takeDocument(Uri uri) {
+        synchronized (this.openedDocuments) {
+            return this.openedDocuments.remove(uri.toString());
+        }
+    }
+
+    private CordovaResourceApi.OpenForReadResult loadDocument(Uri uri, String url, OfflineCache offlineCache, boolean online) throws IOException {
+        if (online && offlineCache != null) {
+            CordovaResourceApi.OpenForReadResult fresh = offlineCache.openFresh(uri, url);
+            if (fresh != null) {
+                return this.injectIntoCached(uri, url, fresh);
+            }
+        }
+
+        if (online || offlineCache == null) {
+            try {
+                return this.fetchDocument(uri, url, offlineCache);
+            } catch (IOException e) {
+                if (offlineCache == null) {
+                    throw e;
+                }
+
+                Log.v(LOG_TAG, String.format("Network request failed, trying offline cache: '%s'", url));
+            }
+        }
+
+        CordovaResourceApi.OpenForReadResult cached = offlineCache.open(uri, url);
+        if (cached == null) {
+            throw new FileNotFoundException(String.format("Document not available offline: '%s'", url));
+        }
+
+        return this.injectIntoCached(uri, url, cached);
+    }
+
+    // cached documents are already converted to UTF-8 by the offline cache
+    private CordovaResourceApi.OpenForReadResult injectIntoCached(Uri uri, String url, CordovaResourceApi.OpenForReadResult cached) throws IOException {
+        InputStream body = cached.inputStream;
+        if ("text/html".equals(cached.mimeType)) {
+            body = this.insertBundleTag(body, url);
+        }
+
+        return new CordovaResourceApi.OpenForReadResult(uri, body, cached.mimeType, -1, null);
+    }
+
+    // returns null for the responses that must reach the WebView with their status and headers
+    private CordovaResourceApi.OpenForReadResult fetchDocument(Uri uri, String url, OfflineCache offlineCache) throws IOException {
+        HttpURLConnection urlConnection = ResourceLoader.openWebConnection(url, this.userAgent);
+        urlConnection.setInstanceFollowRedirects(false);
+        urlConnection.setReadTimeout(READ_TIMEOUT);
+        urlConnection.setRequestProperty("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+
+        int responseCode;
+        try {
+            responseCode = urlConnection.getResponseCode();
+        } catch (IOException e) {
+            urlConnection.disconnect();
+            throw e;
+        }
+
+        ResourceLoader.storeCookies(urlConnection, url);
+
+        String location = urlConnection.getHeaderField("Location");
+        if (responseCode >= 300 && responseCode < 400 && location != null) {
+            // responses served to the WebView cannot carry a redirect status
+            urlConnection.disconnect();
+            String target = new URL(new URL(url), location).toString();
+            if (this.navigations != null) {
+                this.navigations.expect(target);
+            }
+
+            byte[] content = String.format(
+                    "<!DOCTYPE html><html><head><script>location.replace(%s);</script></head></html>",
+                    ScriptBundles.quote(target)).getBytes("UTF-8");
+            return new CordovaResourceApi.OpenForReadResult(uri, new ByteArrayInputStream(content), "text/html", content.length, null);
+        }
+
+        String mimeType = ResourceLoader.getMimeType(urlConnection);
+        if (responseCode != HttpURLConnection.HTTP_OK || !"text/html".equals(mimeType) || ResourceLoader.hasPolicyHeaders(urlConnection)) {
+            Log.v(LOG_TAG, String.format("Leaving document with status %d and type '%s' to the WebView: '%s'", responseCode, mimeType, url));
+            urlConnection.disconnect();
+            return null;
+        }
+
+        InputStream body;
+        try {
+            // the offline cache keeps the original bytes and converts them when serving them
+            body = urlConnection.getInputStream();
+            if (offlineCache != null) {
+                body = offlineCache.record(url, urlConnection, body);
+            }
+
+            body = TranscodingInputStream.toUtf8(body, ResourceLoader.getEncoding(urlConnection));
+            body = this.insertBundleTag(body, url);
+        } catch (IOException e) {
+            urlConnection.disconnect();
+            throw e;
+        }
+
+        return new CordovaResourceApi.OpenForReadResult(uri, ResourceLoader.disconnectOnClose(body, urlConnection), mimeType, -1, null);
+    }
+
+    // inserts the script element and expects the bundle request of the page
+    private InputStream insertBundleTag(InputStream body, String url) throws IOException {
+        String tag = "<script src=\"" + BUNDLE_PATH + "?" + PAGE_PARAMETER + "=" + URLEncoder.encode(url, "UTF-8") + "\"></script>";
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int insertAt = readHead(body, head);
+        if (insertAt < 0) {
+            Log.v(LOG_TAG, "Head element not found, the bundle will be injected when the page finishes loading");
+            return new SequenceInputStream(new ByteArrayInputStream(head.toByteArray()), body);
+        }
+
+        this.pendingBundles.put(NavigationTracker.normalize(url), Boolean.TRUE);
+        byte[] prefix = head.toByteArray();
+        byte[] element = tag.getBytes("UTF-8");
+        ByteArrayOutputStream result = new ByteArrayOutputStream(prefix.length + element.length);
+        result.write(prefix, 0, insertAt);
+        result.write(element);
+        result.write(prefix, insertAt, prefix.length - insertAt);
+        return new SequenceInputStream(new ByteArrayInputStream(result.toByteArray()), body);
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException e) {
+            Log.v(LOG_TAG, "ERROR: failed to close unused document");
+        }
+    }
+
+    // reads the document up to its head tag and returns the insertion point, or -1 if not found
+    private static int readHead(InputStream body, ByteArrayOutputStream prefix) throws IOException {
+        byte[] buffer = new byte[4096];
+        int insertAt = -1;
+        int count;
+        while (insertAt < 0 && prefix.size() < HEAD_SEARCH_LIMIT && (count = body.read(buffer)) != -1) {
+            prefix.write(buffer, 0, count);
+            insertAt = findInsertionPoint(prefix.toByteArray());
+        }
+
+        return insertAt;
+    }
+
+    // position after the <head> tag, or before the first <body> or <script> tag if the head is implicit
+    private static int findInsertionPoint(byte[] html) {
+        for (int i = 0; i < html.length; i++) {
+            if (html[i] != '<') {
+                continue;
+            }
+
+            if (isTag(html, i, "head")) {
+                for (int j = i + 5; j < html.length; j++) {
+                    if (html[j] == '>') {
+                        return j + 1;
+                    }
+                }
+
+                return -1;
+            }
+
+            if (isTag(html, i, "body") || isTag(html, i, "script")) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static boolean isTag(byte[] html, int start, String name) {
+        int end = start + 1 + name.length();
+        if (end >= html.length) {
+            return false;
+        }
+
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.toLowerCase((char) html[start + 1 + i]) != name.charAt(i)) {
+                return false;
+            }
+        }
+
+        byte next = html[end];
+        return next == '>' || next == ' ' || next == '\t' || next == '\r' || next == '\n' || next == '/';
+    }
+}
@@ -1,34 +1,49 @@
 package com.manifoldjs.hostedwebapp;
 
+import android.content.ComponentCallbacks2;
 import android.content.Intent;
+import android.content.res.Configuration;
+import android.content.res.XmlResourceParser;
 import android.net.Uri;
-import android.content.res.AssetManager;
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
+import android.util.TypedValue;
+import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
 import android.webkit.ValueCallback;
 import android.webkit.WebView;
-import android.webkit.WebViewClient;
 import android.widget.LinearLayout;
+import android.widget.TextView;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaActivity;
 import org.apache.cordova.CordovaPlugin;
+import org.apache.cordova.CordovaResourceApi;
 
 import org.apache.cordova.PluginResult;
-import org.apache.cordova.Whitelist;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Method;
-import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
 * This class manipulates the Web App W3C manifest.
@@ -36,78 +51,294 @@ import java.util.List;
 public class HostedWebApp extends CordovaPlugin {
     private static final String LOG_TAG = "HostedWebApp";
     private static final String DEFAULT_MANIFEST_FILE = "manifest.json";
+    private static final String RUNTIME_MANIFEST_FILE = "manifest.runtime";
     private static final String OFFLINE_PAGE = "offline.html";
-    private static final String OFFLINE_PAGE_TEMPLATE = "<html><body><div style=\"top:50%%;text-align:center;position:absolute\">%s</div></body></html>";
+    private static final int SCRIPT_MEMORY_CACHE_SIZE = 4 * 1024 * 1024;
+    private static final long SCRIPT_DISK_CACHE_SIZE = 10 * 1024 * 1024;
+    private static final int SCRIPT_FETCH_THREADS = 4;
+    private static final int INJECTION_THREADS = 2;
+    private static final long OFFLINE_CACHE_SIZE_MB = 50;
+    private static final long PRECACHE_SIZE_MB = 10;
+    private static final long PRECACHE_DELAY = 5000;
+    private static final long MANIFEST_REFRESH_INTERVAL = 5 * 60 * 1000;
+    private static final String REQUEST_PARAMETER = "hostedWebAppRequest";
+    private static final String REQUEST_BUNDLE = "bundle";
+    private static final String REQUEST_CORDOVA = "cordova";
+    private static final String REQUEST_DOCUMENT = "document";
+    private static final String REQUEST_PAGE = "page";
+    private static final String REQUEST_RESOURCE = "resource";
+    private static final String OFFLINE_MESSAGE = "It looks like you are offline. Please reconnect to use this application.";
+
+    private final AtomicBoolean loadingManifest = new AtomicBoolean();
+    private final AtomicReference<ManifestState> state = new AtomicReference<ManifestState>(ManifestState.EMPTY);
+    private Future<ManifestState> manifestLoad;
+    private RemoteManifest remoteManifest;
+    private volatile String remoteManifestUrl;
+    private volatile long remoteManifestChecked;
+    private AssetIndex assetIndex;
+    private volatile Precacher precacher;
+    private final NavigationTracker navigations = new NavigationTracker();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable precacheTask = new Runnable() {
+        @Override
+        public void run() {
+            HostedWebApp.this.startPrecache();
+        }
+    };
+    private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            // the caches are emptied when memory is low or critical while running and at every background
+            // level, and only shrunk at TRIM_MEMORY_RUNNING_MODERATE and TRIM_MEMORY_UI_HIDDEN
+            HostedWebApp.this.trimMemory(MemoryTrim.shouldClear(level));
+        }
+
+        @Override
+        public void onLowMemory() {
+            HostedWebApp.this.trimMemory(true);
+        }
 
-    private boolean loadingManifest;
-    private JSONObject manifestObject;
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+    };
 
     private CordovaActivity activity;
     private CordovaPlugin whiteListPlugin;
+    private Boolean configPathRules;
 
+    // the offline overlay is created the first time it is shown
     private LinearLayout rootLayout;
     private WebView offlineWebView;
-    private boolean offlineOverlayEnabled = true;
+    private volatile boolean offlineOverlayEnabled = true;
+
+    private volatile boolean networkAvailable = true;
+    private volatile String connectionType = "unknown";
+    private volatile String unavailablePage;
+    private ReconnectionController reconnection;
+    private PageEvents pageEvents;
+    private ConnectionWarmer connectionWarmer;
 
-    private boolean isConnectionError = false;
+    private String userAgent;
+    private Method evaluateJavascriptMethod;
+    private boolean evaluateJavascriptResolved;
+
+    private ScriptCache scriptCache;
+    private PriorityExecutor fetchExecutor;
+    private PriorityExecutor injectionExecutor;
+    private ScriptInjector scriptInjector;
 
     @Override
     public void pluginInitialize() {
-        final HostedWebApp me = HostedWebApp.this;
         this.activity = (CordovaActivity)this.cordova.getActivity();
+        if (this.preferences.getBoolean("HostedWebAppMetrics", false)) {
+            Metrics.enable(this.preferences.getBoolean("HostedWebAppTrace", false));
+        }
 
-        // Load default manifest file.
-        this.loadingManifest = true;
-        if (this.assetExists(HostedWebApp.DEFAULT_MANIFEST_FILE)) {
-            try {
-                this.manifestObject = this.loadLocalManifest(HostedWebApp.DEFAULT_MANIFEST_FILE);
-                this.onManifestLoaded();
-            } catch (JSONException e) {
-                e.printStackTrace();
+        this.assetIndex = new AssetIndex(this.activity.getResources().getAssets());
+        this.scriptCache = new ScriptCache(
+                this.activity.getResources().getAssets(),
+                this.activity.getCacheDir(),
+                HostedWebApp.SCRIPT_MEMORY_CACHE_SIZE,
+                HostedWebApp.SCRIPT_DISK_CACHE_SIZE);
+
+        // injections build bundles, waiting for the scripts read on the fetch executor
+        this.fetchExecutor = new PriorityExecutor(HostedWebApp.SCRIPT_FETCH_THREADS, "HostedWebApp-fetch");
+        this.injectionExecutor = new PriorityExecutor(HostedWebApp.INJECTION_THREADS, "HostedWebApp-inject");
+        this.scriptInjector = new ScriptInjector(this.navigations, this.scriptCache, this.fetchExecutor, this.injectionExecutor, new ScriptInjector.Page() {
+            @Override
+            public void evaluate(String bundle, int token, boolean cached) {
+                HostedWebApp.this.evaluateScript(bundle, token, null);
             }
+        });
+
+        View engineView = this.webView.getEngine().getView();
+        if (engineView instanceof WebView) {
+            this.userAgent = ((WebView) engineView).getSettings().getUserAgentString();
         }
 
-        this.loadingManifest = false;
+        this.remoteManifest = new RemoteManifest(this.activity.getCacheDir(), this.userAgent);
+        this.activity.registerComponentCallbacks(this.memoryCallbacks);
 
-        if (!this.manifestObject.optBoolean("mjs_offline_feature", true)) {
-            this.offlineOverlayEnabled = false;
-            // Do not initialize offline overlay
-            return;
-        }
-        // Initialize offline overlay
-        this.activity.runOnUiThread(new Runnable() {
+        final HostedWebApp me = HostedWebApp.this;
+        this.connectionWarmer = new ConnectionWarmer(this.cordova.getThreadPool());
+        ReconnectionController.Scheduler mainThread = new ReconnectionController.Scheduler() {
             @Override
-            public void run() {
-                if (me.rootLayout == null) {
-                    me.rootLayout = me.createOfflineRootLayout();
-                    me.activity.addContentView(me.rootLayout, me.rootLayout.getLayoutParams());
-                }
+            public void post(Runnable task) {
+                me.handler.post(task);
+            }
 
-                if (me.offlineWebView == null) {
-                    me.offlineWebView = me.createOfflineWebView();
-                    me.rootLayout.addView(me.offlineWebView);
-                }
+            @Override
+            public void postDelayed(Runnable task, long delay) {
+                me.handler.postDelayed(task, delay);
+            }
 
-                if (me.assetExists(HostedWebApp.OFFLINE_PAGE)) {
-                    me.offlineWebView.loadUrl("file:///android_asset/www/" + HostedWebApp.OFFLINE_PAGE);
-                } else {
-                    me.offlineWebView.loadData(
-                            String.format(HostedWebApp.OFFLINE_PAGE_TEMPLATE, "It looks like you are offline. Please reconnect to use this application."),
-                            "text/html",
-                            null);
+            @Override
+            public void removeCallbacks(Runnable task) {
+                me.handler.removeCallbacks(task);
+            }
+        };
+
+        this.reconnection = new ReconnectionController(mainThread, this.cordova.getThreadPool(), this.userAgent, new ReconnectionController.Page() {
+            @Override
+            public String getUrl() {
+                return me.webView.getUrl();
+            }
+
+            @Override
+            public void reload(String url) {
+                me.navigations.expect(url);
+                me.webView.loadUrlIntoView(url, false);
+            }
+        });
+
+        this.pageEvents = new PageEvents(this.navigations, this.reconnection, new PageEvents.Host() {
+            @Override
+            public void connectionChanged(String connectionType) {
+                me.handleNetworkConnectionChange(connectionType);
+            }
+
+            @Override
+            public boolean isUnavailable(String url) {
+                // the page could not be loaded from the network or the offline cache
+                String unavailablePage = me.unavailablePage;
+                if (unavailablePage == null || !unavailablePage.equals(NavigationTracker.normalize(url))) {
+                    return false;
                 }
 
-                me.offlineOverlayEnabled = true;
+                me.unavailablePage = null;
+                return true;
+            }
+
+            @Override
+            public void showOfflinePage() {
+                me.showOfflineOverlay();
+            }
+
+            @Override
+            public void hideOfflinePage() {
+                me.hideOfflineOverlay();
+            }
+
+            @Override
+            public void injectScripts(String url, int token) {
+                Log.v(LOG_TAG, String.format("Finished loading URL '%s'", url));
+                me.injectCordovaScripts(url, token);
             }
         });
+
+        // Load default manifest file in the background; startup does not wait for it.
+        // The runtime manifest compiled by the prepare hook is used when it matches manifest.json.
+        this.loadingManifest.set(true);
+        FutureTask<ManifestState> manifestLoad = new FutureTask<ManifestState>(new Callable<ManifestState>() {
+            @Override
+            public ManifestState call() {
+                try {
+                    if (me.assetExists(HostedWebApp.DEFAULT_MANIFEST_FILE)) {
+                        String manifestText = me.readManifestFile(HostedWebApp.DEFAULT_MANIFEST_FILE);
+                        ManifestState loaded = me.compileManifest(StartupManifest.load(manifestText, me.readRuntimeManifest(), "android"));
+                        me.installManifest(loaded);
+                        return loaded;
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } catch (JSONException e) {
+                    e.printStackTrace();
+                } finally {
+                    me.loadingManifest.set(false);
+                }
+
+                return null;
+            }
+        }) {
+            @Override
+            protected void done() {
+                // runs on the loading thread, where the JSON of the manifest is parsed for other
+                // plugins; a remote manifest that replaced it has already been announced
+                try {
+                    ManifestState loaded = this.get();
+                    if (loaded != null && me.state.get() == loaded) {
+                        me.notifyManifestLoaded(loaded);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    Log.v(LOG_TAG, "ERROR: failed to load the default manifest");
+                }
+            }
+        };
+
+        this.manifestLoad = manifestLoad;
+        this.cordova.getThreadPool().execute(manifestLoad);
+    }
+
+    /**
+    * Waits until the default manifest has been loaded and returns the current manifest state.
+    */
+    private ManifestState awaitManifest() {
+        try {
+            this.manifestLoad.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.v(LOG_TAG, "ERROR: failed to load the default manifest");
+        }
+
+        return this.state.get();
+    }
+
+    @Override
+    public void onPause(boolean multitasking) {
+        // precaching and reconnecting are not worth the battery and data while the app is in the background
+        this.handler.removeCallbacks(this.precacheTask);
+        this.reconnection.pause();
+        if (this.precacher != null) {
+            this.precacher.cancel();
+        }
+    }
+
+    @Override
+    public void onResume(boolean multitasking) {
+        this.schedulePrecache();
+        this.reconnection.resume();
+
+        final String manifestUrl = this.remoteManifestUrl;
+        if (manifestUrl != null && System.currentTimeMillis() - this.remoteManifestChecked > HostedWebApp.MANIFEST_REFRESH_INTERVAL) {
+            final HostedWebApp me = this;
+            this.cordova.getThreadPool().execute(new Runnable() {
+                @Override
+                public void run() {
+                    me.refreshRemoteManifest(manifestUrl);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        this.activity.unregisterComponentCallbacks(this.memoryCallbacks);
+        this.handler.removeCallbacks(this.precacheTask);
+        this.reconnection.pause();
+        if (this.precacher != null) {
+            this.precacher.shutdown();
+        }
+
+        this.injectionExecutor.shutdownNow();
+        this.fetchExecutor.shutdownNow();
+
+        if (this.offlineWebView != null) {
+            this.offlineWebView.destroy();
+            this.offlineWebView = null;
+        }
     }
 
     @Override
     public boolean execute(String action, JSONArray args, final CallbackContext callbackContext) throws JSONException {
         final HostedWebApp me = HostedWebApp.this;
         if (action.equals("getManifest")) {
-            if (this.manifestObject != null) {
-                callbackContext.success(manifestObject.toString());
+            JSONObject manifest = this.awaitManifest().getManifest();
+            if (manifest != null) {
+                callbackContext.success(manifest.toString());
             } else {
                 callbackContext.error("Manifest not loaded, load a manifest using loadManifest.");
             }
@@ -116,22 +347,31 @@ public class HostedWebApp extends CordovaPlugin {
         }
 
         if (action.equals("loadManifest")) {
-            if (this.loadingManifest) {
-                callbackContext.error("Already loading a manifest");
-            } else if (args.length() == 0) {
+            if (args.length() == 0) {
                 callbackContext.error("Manifest file name required");
+            } else if (!this.loadingManifest.compareAndSet(false, true)) {
+                callbackContext.error("Already loading a manifest");
             } else {
                 final String configFilename = args.getString(0);
 
-                this.loadingManifest = true;
                 this.cordova.getThreadPool().execute(new Runnable() {
                     @Override
                     public void run() {
+                        if (RemoteManifest.isRemote(configFilename)) {
+                            me.loadRemoteManifest(configFilename, callbackContext);
+                            return;
+                        }
+
                         if (me.assetExists(configFilename)) {
                             try {
-                                me.manifestObject = me.loadLocalManifest(configFilename);
-                                me.onManifestLoaded();
-                                callbackContext.success(me.manifestObject);
+                                JSONObject manifest = me.loadLocalManifest(configFilename);
+                                if (manifest == null) {
+                                    throw new JSONException("Manifest file could not be read");
+                                }
+
+                                me.remoteManifestUrl = null;
+                                me.publishManifest(me.compileManifest(manifest));
+                                callbackContext.success(manifest);
                             } catch (JSONException e) {
                                 callbackContext.error(e.getMessage());
                             }
@@ -139,7 +379,7 @@ public class HostedWebApp extends CordovaPlugin {
                             callbackContext.error("Manifest file not found in folder assets/www");
                         }
 
-                        me.loadingManifest = false;
+                        me.loadingManifest.set(false);
                     }
                 });
 
@@ -151,6 +391,16 @@ public class HostedWebApp extends CordovaPlugin {
             return true;
         }
 
+        if (action.equals("getMetrics")) {
+            callbackContext.success(Metrics.snapshot());
+            return true;
+        }
+
+        if (action.equals("getMemoryUsage")) {
+            callbackContext.success(this.getMemoryUsage());
+            return true;
+        }
+
         if (action.equals("enableOfflinePage")) {
             this.offlineOverlayEnabled = true;
             return true;
@@ -161,14 +411,45 @@ public class HostedWebApp extends CordovaPlugin {
             return true;
         }
 
+        if (action.equals("injectPluginScripts")) {
+            JSONArray files = args.getJSONArray(0);
+            final List<String> scripts = new ArrayList<String>(files.length());
+            for (int i = 0; i < files.length(); i++) {
+                scripts.add(files.getString(i));
+            }
+
+            final int token = this.navigations.getToken();
+            this.navigations.track(token, this.injectionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    StringBuilder script = new StringBuilder();
+                    final int loaded = ScriptBundles.appendScripts(me.scriptCache, me.fetchExecutor, script, scripts);
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+
+                    Log.v(LOG_TAG, String.format("Injecting %d of %d plugin scripts", loaded, scripts.size()));
+                    me.evaluateScript(script.toString(), token, new ValueCallback<String>() {
+                        @Override
+                        public void onReceiveValue(String s) {
+                            callbackContext.success(loaded);
+                        }
+                    });
+                }
+            }, PriorityExecutor.PRIORITY_BRIDGE));
+
+            return true;
+        }
+
 		if (action.equals("injectPluginScript")) {
 			final List<String> scripts = new ArrayList<String>();
 			scripts.add(args.getString(0));
+            final int token = this.navigations.getToken();
 
             cordova.getActivity().runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
-                    injectScripts(scripts, new ValueCallback<String>() {
+                    injectScripts(scripts, token, new ValueCallback<String>() {
                         @Override
                         public void onReceiveValue(String s) {
                             callbackContext.success(1);
@@ -185,49 +466,14 @@ public class HostedWebApp extends CordovaPlugin {
 
     @Override
     public Object onMessage(String id, Object data) {
-        if (id.equals("networkconnection") && data != null) {
-            this.handleNetworkConnectionChange(data.toString());
-        } else if (id.equals("onPageStarted")) {
-            this.isConnectionError = false;
-        } else if (id.equals("onReceivedError")) {
-            if (data instanceof JSONObject) {
-                JSONObject errorData = (JSONObject) data;
-                try {
-                    int errorCode = errorData.getInt("errorCode");
-                    if (404 == errorCode
-                            || WebViewClient.ERROR_HOST_LOOKUP == errorCode
-                            || WebViewClient.ERROR_CONNECT == errorCode
-                            || WebViewClient.ERROR_TIMEOUT == errorCode) {
-                        this.isConnectionError = true;
-                        this.showOfflineOverlay();
-                    }
-                } catch (JSONException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-        else if (id.equals("onPageFinished")) {
-            if (!this.isConnectionError) {
-                this.hideOfflineOverlay();
-            }
-
-            if (data != null) {
-                String url = data.toString();
-                Log.v(LOG_TAG, String.format("Finished loading URL '%s'", url));
-
-                this.injectCordovaScripts(url);
-            }
-        }
-
-        return null;
+        return this.pageEvents.onMessage(id, data);
     }
 
     @Override
     public Boolean shouldAllowRequest(String url) {
-        CordovaPlugin whiteListPlugin = this.getWhitelistPlugin();
-
-        if (whiteListPlugin != null && Boolean.TRUE != whiteListPlugin.shouldAllowRequest(url)) {
-            Log.w(LOG_TAG, String.format("Whitelist rejection: url='%s'", url));
+        WhitelistCache whitelistCache = this.state.get().whitelistCache;
+        if (!whitelistCache.allowRequest(this.getWhitelistPlugin(), url)) {
+            whitelistCache.logRejection(url);
         }
 
         // do not alter default behavior.
@@ -236,12 +482,12 @@ public class HostedWebApp extends CordovaPlugin {
 
     @Override
     public boolean onOverrideUrlLoading(String url) {
-        CordovaPlugin whiteListPlugin = this.getWhitelistPlugin();
+        WhitelistCache whitelistCache = this.state.get().whitelistCache;
 
-        if (whiteListPlugin != null && Boolean.TRUE != whiteListPlugin.shouldAllowNavigation(url)) {
+        if (!whitelistCache.allowNavigation(this.getWhitelistPlugin(), url)) {
             // If the URL is not in the list URLs to allow navigation, open the URL in the external browser
             // (code extracted from CordovaLib/src/org/apache/cordova/CordovaWebViewImpl.java)
-            Log.w(LOG_TAG, String.format("Whitelist rejection: url='%s'", url));
+            whitelistCache.logRejection(url);
 
             try {
                 Intent intent = new Intent(Intent.ACTION_VIEW);
@@ -261,127 +507,351 @@ public class HostedWebApp extends CordovaPlugin {
 
             return true;
         } else {
+            this.navigations.expect(url);
             return false;
         }
     }
 
-    public JSONObject getManifest() {
-        return this.manifestObject;
-    }
-
-    private void injectCordovaScripts(String pageUrl) {
-
-        // Inject cordova scripts
-        JSONArray apiAccessRules = this.manifestObject.optJSONArray("mjs_api_access");
-        if (apiAccessRules != null) {
-            boolean allowApiAccess = false;
-            for (int i = 0; i < apiAccessRules.length(); i++) {
-                JSONObject apiRule = apiAccessRules.optJSONObject(i);
-                if (apiRule != null) {
-                    // ensure rule applies to current platform and current page
-                    if (this.isMatchingRuleForPage(pageUrl, apiRule, true)) {
-                        String access = apiRule.optString("access", "cordova").trim();
-                        if (access.equalsIgnoreCase("cordova")) {
-                            allowApiAccess = true;
-                        } else if (access.equalsIgnoreCase("none")) {
-                            allowApiAccess = false;
-                            break;
-                        } else {
-                            Log.v(LOG_TAG, String.format("Unsupported API access type '%s' found in mjs_api_access rule.", access));
-                        }
-                    }
-                }
+    @Override
+    public Uri remapUri(Uri uri) {
+        // requests are intercepted on a background thread, which can wait for the manifest
+        ManifestState state = this.awaitManifest();
+        if (state.cordovaAssets != null && state.cordovaAssets.getAssetPath(uri) != null) {
+            return this.toPluginUri(uri, HostedWebApp.REQUEST_CORDOVA);
+        }
+
+        DocumentInjector documentInjector = state.documentInjector;
+        OfflineCache offlineCache = state.offlineCache;
+        if (documentInjector == null && offlineCache == null) {
+            return null;
+        }
+
+        if (documentInjector != null && documentInjector.isBundleRequest(uri)) {
+            return this.toPluginUri(uri, HostedWebApp.REQUEST_BUNDLE);
+        }
+
+        // only top-level navigations to pages that get scripts injected are loaded by the injector,
+        // which opens them here so the ones it cannot serve faithfully are left to the WebView
+        String url = uri.toString();
+        boolean navigation = this.navigations.take(url);
+        if (navigation && documentInjector != null && state.ruleIndex.match(url) != RuleIndex.Match.NONE) {
+            Uri documentUri = this.toPluginUri(uri, HostedWebApp.REQUEST_DOCUMENT);
+            OfflineCache documentCache = offlineCache != null && state.scope.contains(url) ? offlineCache : null;
+            Log.v(LOG_TAG, String.format("Loading document with injected scripts: '%s'", url));
+            return documentInjector.openDocument(documentUri, url, documentCache, this.networkAvailable) ? documentUri : null;
+        }
+
+        // while online, only fresh cached responses are served by the plugin; the WebView loads
+        // everything else itself, keeping redirects, error statuses, response headers and cookies
+        if (offlineCache != null && state.scope.contains(url)) {
+            boolean cacheable = navigation || OfflineCache.isStaticResource(uri);
+            if (this.networkAvailable ? cacheable && offlineCache.isFresh(url) : offlineCache.contains(url)) {
+                return this.toPluginUri(uri, navigation ? HostedWebApp.REQUEST_PAGE : HostedWebApp.REQUEST_RESOURCE);
             }
+        }
 
-            if (allowApiAccess) {
-                String pluginMode = "client";
-                String cordovaBaseUrl = "/";
+        return null;
+    }
 
-                JSONObject cordovaSettings = this.manifestObject.optJSONObject("mjs_cordova");
-                if (cordovaSettings != null) {
-                    pluginMode = cordovaSettings.optString("plugin_mode", "client").trim();
-                    cordovaBaseUrl = cordovaSettings.optString("base_url", "").trim();
-                    if (!cordovaBaseUrl.endsWith("/")) {
-                        cordovaBaseUrl += "/";
-                    }
-                }
+    @Override
+    public CordovaResourceApi.OpenForReadResult handleOpenForRead(Uri uri) throws IOException {
+        Uri origUri = this.fromPluginUri(uri);
+        String url = origUri.toString();
+        String request = uri.getQueryParameter(HostedWebApp.REQUEST_PARAMETER);
+        ManifestState state = this.state.get();
+
+        if (HostedWebApp.REQUEST_CORDOVA.equals(request) && state.cordovaAssets != null) {
+            String assetPath = state.cordovaAssets.getAssetPath(origUri);
+            if (assetPath != null) {
+                return state.cordovaAssets.open(uri, assetPath);
+            }
+        }
+
+        if (HostedWebApp.REQUEST_BUNDLE.equals(request) && state.documentInjector != null) {
+            String page = state.documentInjector.takeBundlePage(origUri);
+            if (page == null) {
+                throw new FileNotFoundException(String.format("Bundle not available: '%s'", url));
+            }
 
-                this.webView.getEngine().loadUrl("javascript: window.hostedWebApp = { 'platform': 'android', 'pluginMode': '" + pluginMode + "', 'cordovaBaseUrl': '" + cordovaBaseUrl + "'};", false);
+            RuleIndex.Match match = state.ruleIndex.match(page);
+            boolean deferScripts = this.scriptInjector.isDeferringScripts();
+            String bundle = state.scriptBundles.getCached(match, deferScripts);
+            if (bundle == null) {
+                bundle = state.scriptBundles.build(match, deferScripts);
+            }
 
-                List<String> scriptList = new ArrayList<String>();
-                if (pluginMode.equals("client")) {
-                    scriptList.add("cordova.js");
-                }
+            return state.documentInjector.openBundle(uri, bundle);
+        }
+
+        OfflineCache offlineCache = state.offlineCache;
+        if (offlineCache != null && !state.scope.contains(url)) {
+            offlineCache = null;
+        }
 
-                scriptList.add("hostedapp-bridge.js");
-                injectScripts(scriptList, null);
+        if (HostedWebApp.REQUEST_DOCUMENT.equals(request) && state.documentInjector != null) {
+            CordovaResourceApi.OpenForReadResult document = state.documentInjector.takeDocument(uri);
+            if (document == null) {
+                throw new FileNotFoundException(String.format("Document not available: '%s'", url));
             }
+
+            return document;
         }
 
-        // Inject custom scripts
-        JSONArray customScripts = this.manifestObject.optJSONArray("mjs_import_scripts");
-        if (customScripts != null && customScripts.length() > 0) {
-            for (int i = 0; i < customScripts.length(); i++) {
-                JSONObject item = customScripts.optJSONObject(i);
-                if (item != null) {
-                    String source = item.optString("src", "").trim();
-                    if (!source.isEmpty()) {
-                        // ensure script applies to current page
-                        if (this.isMatchingRuleForPage(pageUrl, item, false)) {
-                            injectScripts(Arrays.asList(new String[]{source}), null);
-                        }
-                    }
-                }
+        CordovaResourceApi.OpenForReadResult result = null;
+        if (offlineCache != null) {
+            result = offlineCache.open(uri, url);
+        }
+
+        if (result == null) {
+            if (HostedWebApp.REQUEST_PAGE.equals(request)) {
+                this.unavailablePage = NavigationTracker.normalize(url);
             }
+
+            throw new FileNotFoundException(String.format("Resource not available: '%s'", url));
         }
+
+        return result;
     }
 
-    private boolean isMatchingRuleForPage(String pageUrl, JSONObject item, boolean checkPlatform) {
-        // ensure item applies to current platform
-        if (checkPlatform) {
-            boolean isPlatformMatch = true;
-            String platform = item.optString("platform", "").trim();
-            if (!platform.isEmpty()) {
-                isPlatformMatch = false;
-                String[] platforms = platform.split(",");
-                for (String p : platforms) {
-                    if (p.trim().equalsIgnoreCase("android")) {
-                        isPlatformMatch = true;
-                        break;
-                    }
+    private Uri toPluginUri(Uri uri, String request) {
+        return this.toPluginUri(uri).buildUpon().appendQueryParameter(HostedWebApp.REQUEST_PARAMETER, request).build();
+    }
+
+    public JSONObject getManifest() {
+        return this.awaitManifest().getManifest();
+    }
+
+    private void injectCordovaScripts(final String pageUrl, final int token) {
+        final HostedWebApp me = this;
+        if (!this.manifestLoad.isDone()) {
+            this.cordova.getThreadPool().execute(new Runnable() {
+                @Override
+                public void run() {
+                    me.awaitManifest();
+                    me.injectCordovaScripts(pageUrl, token);
                 }
+            });
+
+            return;
+        }
+
+        ManifestState state = this.state.get();
+        if (state.ruleIndex == null || !this.navigations.isCurrent(token)) {
+            return;
+        }
+
+        // scripts were already injected when the document was loaded
+        if (state.documentInjector != null && state.documentInjector.takeInjectedPage(pageUrl)) {
+            return;
+        }
+
+        this.scriptInjector.inject(state.ruleIndex, state.scriptBundles, pageUrl, token);
+    }
+
+    private ManifestState compileManifest(JSONObject manifest) {
+        return this.compileManifest(StartupManifest.fromJson(manifest, "android"));
+    }
+
+    private ManifestState compileManifest(StartupManifest manifest) {
+        RuntimeManifest settings = manifest.settings;
+
+        // connections are warmed up while the rules are compiled and the WebView starts
+        this.connectionWarmer.connect(getImportScriptUrls(settings));
+        this.connectionWarmer.resolve(getWebViewUrls(settings));
+
+        long start = Metrics.start("manifest.compile");
+        try {
+            return this.compileManifestState(settings, manifest);
+        } finally {
+            Metrics.end("manifest.compile", start);
+        }
+    }
+
+    private ManifestState compileManifestState(RuntimeManifest settings, StartupManifest manifest) {
+        String pluginMode = settings.pluginMode;
+        String cordovaBaseUrl = settings.cordovaBaseUrl;
+
+        ConnectionPolicy connectionPolicy = ConnectionPolicy.compile(settings);
+        ScriptBundles scriptBundles = new ScriptBundles(this.scriptCache, this.fetchExecutor, pluginMode, cordovaBaseUrl, connectionPolicy.deferrableScripts);
+        RuleIndex ruleIndex = RuleIndex.compile(settings.apiRules, settings.scriptRules);
+
+        ManifestScope scope = ManifestScope.compile(settings);
+        DocumentInjector documentInjector = settings.injectionMode.equals("document_start") ? new DocumentInjector(this.userAgent, this.navigations) : null;
+
+        // in server mode, the Cordova files that are packaged with the app are not downloaded
+        CordovaAssets cordovaAssets = null;
+        if (pluginMode.equals("server")) {
+            cordovaAssets = CordovaAssets.create(cordovaBaseUrl, settings.startUrl, "android",
+                    this.assetIndex, this.activity.getResources().getAssets(), this.scriptCache);
+        }
+
+        OfflineCache offlineCache = null;
+        List<String> precacheUrls = new ArrayList<String>();
+        if (settings.offlineCache) {
+            long cacheSize = (settings.cacheSizeMb >= 0 ? settings.cacheSizeMb : HostedWebApp.OFFLINE_CACHE_SIZE_MB) * 1024 * 1024;
+            offlineCache = new OfflineCache(this.activity.getCacheDir(), cacheSize);
+            precacheUrls = getPrecacheUrls(settings.startUrl, settings.precache, scope);
+        }
+
+        return new ManifestState(manifest, settings.startUrl, ruleIndex, scriptBundles, documentInjector, cordovaAssets, scope, offlineCache,
+                precacheUrls, settings.offlineFeature, new WhitelistCache(!scope.hasPathRules() && !this.hasConfigPathRules()), connectionPolicy);
+    }
+
+    // replaces the current manifest state, so later requests and pages use the new rules
+    private synchronized void publishManifest(ManifestState state) {
+        this.installManifest(state);
+        this.notifyManifestLoaded(state);
+    }
+
+    private synchronized void installManifest(ManifestState state) {
+        this.state.set(state);
+
+        if (!state.startUrl.isEmpty()) {
+            this.navigations.expect(state.startUrl);
+        }
+
+        this.applyConnectionPolicy(state, true);
+
+        if (this.precacher != null) {
+            this.precacher.shutdown();
+            this.precacher = null;
+        }
+
+        if (state.offlineCache != null) {
+            this.precacher = new Precacher(state.offlineCache, this.userAgent, HostedWebApp.PRECACHE_SIZE_MB * 1024 * 1024);
+            this.schedulePrecache();
+        }
+    }
+
+    private void notifyManifestLoaded(ManifestState state) {
+        this.webView.postMessage("hostedWebApp_manifestLoaded", state.getManifest());
+    }
+
+    private void loadRemoteManifest(String url, CallbackContext callbackContext) {
+        this.remoteManifestUrl = url;
+
+        // a cached copy is used right away and revalidated afterwards
+        JSONObject cached = this.remoteManifest.loadCached(url);
+        if (cached != null) {
+            this.publishManifest(this.compileManifest(cached));
+            this.loadingManifest.set(false);
+            callbackContext.success(cached);
+            this.refreshRemoteManifest(url);
+            return;
+        }
+
+        try {
+            JSONObject manifest = this.remoteManifest.fetch(url);
+            if (manifest == null) {
+                throw new IOException("Cached manifest not available");
             }
 
-            if (!isPlatformMatch) {
-                return false;
+            this.remoteManifestChecked = System.currentTimeMillis();
+            this.publishManifest(this.compileManifest(manifest));
+            callbackContext.success(manifest);
+        } catch (IOException e) {
+            callbackContext.error(String.format("Failed to download manifest: %s", e.getMessage()));
+        } catch (JSONException e) {
+            callbackContext.error(e.getMessage());
+        } finally {
+            this.loadingManifest.set(false);
+        }
+    }
+
+    private void refreshRemoteManifest(String url) {
+        this.remoteManifestChecked = System.currentTimeMillis();
+        try {
+            JSONObject manifest = this.remoteManifest.fetch(url);
+            if (manifest != null && url.equals(this.remoteManifestUrl)) {
+                Log.v(LOG_TAG, String.format("Manifest updated: '%s'", url));
+                this.publishManifest(this.compileManifest(manifest));
             }
+        } catch (IOException e) {
+            Log.v(LOG_TAG, String.format("Failed to refresh manifest, keeping cached copy: '%s'", url));
+        } catch (JSONException e) {
+            Log.v(LOG_TAG, String.format("ERROR: invalid manifest, keeping cached copy: '%s'", url));
         }
+    }
 
-        // ensure item applies to current page
-        boolean isURLMatch = true;
-        JSONArray match = item.optJSONArray("match");
-        if (match == null) {
-            match = new JSONArray();
-            String matchString = item.optString("match", "").trim();
-            if (!matchString.isEmpty()) {
-                match.put(matchString);
+    // the start page and the Cordova files in server mode, which the WebView loads
+    private static List<String> getWebViewUrls(RuntimeManifest settings) {
+        List<String> urls = new ArrayList<String>();
+        urls.add(settings.startUrl);
+        if (settings.pluginMode.equals("server")) {
+            try {
+                URL baseUrl = settings.startUrl.isEmpty() ? new URL(settings.cordovaBaseUrl) : new URL(new URL(settings.startUrl), settings.cordovaBaseUrl);
+                urls.add(baseUrl.toString());
+            } catch (MalformedURLException e) {
+                Log.v(LOG_TAG, String.format("Invalid Cordova base URL: '%s'", settings.cordovaBaseUrl));
             }
         }
 
-        if (match.length() > 0) {
-            Whitelist whitelist = new Whitelist();
-            for (int j = 0; j < match.length(); j++) {
-                whitelist.addWhiteListEntry(match.optString(j).trim(), false);
+        return urls;
+    }
+
+    // the import scripts, which the plugin downloads itself; the ones packaged with the app are relative
+    private static List<String> getImportScriptUrls(RuntimeManifest settings) {
+        List<String> urls = new ArrayList<String>();
+        for (RuntimeManifest.Rule scriptRule : settings.scriptRules) {
+            urls.add(scriptRule.value);
+        }
+
+        return urls;
+    }
+
+    // start_url, the manifest icons and the mjs_precache entries that are in the manifest scope
+    private static List<String> getPrecacheUrls(String startUrl, List<String> precache, ManifestScope scope) {
+        List<String> candidates = new ArrayList<String>();
+        candidates.add(startUrl);
+        candidates.addAll(precache);
+
+        List<String> urls = new ArrayList<String>();
+        for (String candidate : candidates) {
+            if (candidate.isEmpty()) {
+                continue;
+            }
+
+            try {
+                String url = new URL(new URL(startUrl), candidate).toString();
+                if (scope.contains(url) && !urls.contains(url)) {
+                    urls.add(url);
+                }
+            } catch (MalformedURLException e) {
+                Log.v(LOG_TAG, String.format("Invalid precache URL: '%s'", candidate));
             }
+        }
 
-            isURLMatch = whitelist.isUrlWhiteListed(pageUrl);
+        return urls;
+    }
+
+    private void schedulePrecache() {
+        this.handler.removeCallbacks(this.precacheTask);
+        if (this.precacher != null) {
+            this.handler.postDelayed(this.precacheTask, HostedWebApp.PRECACHE_DELAY);
+        }
+    }
+
+    // adapts script caching, prefetching and precaching to the type of the current connection
+    private synchronized void applyConnectionPolicy(ManifestState state, boolean manifestChanged) {
+        int current = state.connectionPolicy.classify(this.connectionType);
+        if (current == this.scriptInjector.getConnectionClass() && !manifestChanged) {
+            return;
         }
 
-        return isURLMatch;
+        Log.v(LOG_TAG, String.format("Using the %s connection policy for connection type '%s'", ConnectionPolicy.getName(current), this.connectionType));
+        int previous = this.scriptInjector.setConnectionClass(current, state.connectionPolicy);
+
+        // precaching that waited for a better connection starts once it is available
+        if (!manifestChanged && (previous == ConnectionPolicy.SLOW || current == ConnectionPolicy.FAST)) {
+            this.schedulePrecache();
+        }
     }
 
-    private void onManifestLoaded() {
-        this.webView.postMessage("hostedWebApp_manifestLoaded", this.manifestObject);
+    private void startPrecache() {
+        Precacher precacher = this.precacher;
+        if (precacher != null && this.networkAvailable && this.scriptInjector.getConnectionClass() != ConnectionPolicy.SLOW) {
+            precacher.start(this.state.get().precacheUrls);
+        }
     }
 
     private CordovaPlugin getWhitelistPlugin() {
@@ -393,14 +863,30 @@ public class HostedWebApp extends CordovaPlugin {
     }
 
     private boolean assetExists(String asset) {
-        final AssetManager assetManager = this.activity.getResources().getAssets();
-        try {
-            return Arrays.asList(assetManager.list("www")).contains(asset);
-        } catch (IOException e) {
-            e.printStackTrace();
+        return this.assetIndex.exists(asset);
+    }
+
+    // the default message is shown in a native view, a WebView is only needed for a custom page
+    private View createOfflineView() {
+        if (this.assetExists(HostedWebApp.OFFLINE_PAGE)) {
+            this.offlineWebView = this.createOfflineWebView();
+            this.offlineWebView.loadUrl("file:///android_asset/www/" + HostedWebApp.OFFLINE_PAGE);
+            return this.offlineWebView;
         }
 
-        return false;
+        float density = this.activity.getResources().getDisplayMetrics().density;
+        TextView messageView = new TextView(this.activity);
+        messageView.setText(HostedWebApp.OFFLINE_MESSAGE);
+        messageView.setTextColor(Color.BLACK);
+        messageView.setTextSize(TypedValue.COMPLEX_UNIT_DIP, 16);
+        messageView.setBackgroundColor(Color.WHITE);
+        messageView.setGravity(Gravity.CENTER);
+        messageView.setPadding((int) (8 * density), 0, (int) (8 * density), 0);
+        messageView.setLayoutParams(new LinearLayout.LayoutParams(
+                                                     ViewGroup.LayoutParams.MATCH_PARENT,
+                                                     ViewGroup.LayoutParams.MATCH_PARENT,
+                                                     1.0F));
+        return messageView;
     }
 
     private WebView createOfflineWebView() {
@@ -429,40 +915,110 @@ public class HostedWebApp extends CordovaPlugin {
         return root;
     }
 
+    // the reconnection and the overlay of a failed page are handled by pageEvents
     private void handleNetworkConnectionChange(String info) {
-        final HostedWebApp me = HostedWebApp.this;
+        this.connectionType = info;
+        this.applyConnectionPolicy(this.state.get(), false);
+
         if (info.equals("none")) {
-            this.showOfflineOverlay();
-        } else {
-            if (this.isConnectionError) {
+            this.networkAvailable = false;
 
-                this.activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        String currentUrl = me.webView.getUrl();
-                        me.webView.loadUrlIntoView(currentUrl, false);
-                    }
-                });
-            } else {
-                this.hideOfflineOverlay();
+            // with the offline cache, the overlay is only shown when a page is not cached
+            if (this.state.get().offlineCache == null) {
+                this.showOfflineOverlay();
             }
+        } else {
+            if (!this.networkAvailable) {
+                this.schedulePrecache();
+            }
+
+            this.networkAvailable = true;
         }
     }
 
     private void showOfflineOverlay() {
         final HostedWebApp me = HostedWebApp.this;
-        if (this.offlineOverlayEnabled) {
+        if (!this.manifestLoad.isDone()) {
+            this.cordova.getThreadPool().execute(new Runnable() {
+                @Override
+                public void run() {
+                    me.awaitManifest();
+                    me.showOfflineOverlay();
+                }
+            });
+
+            return;
+        }
+
+        if (this.state.get().offlineFeature && this.offlineOverlayEnabled) {
             this.activity.runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
-                    if (me.rootLayout != null) {
-                        me.rootLayout.setVisibility(View.VISIBLE);
+                    if (me.rootLayout == null) {
+                        long start = Metrics.start("overlay.create");
+                        me.rootLayout = me.createOfflineRootLayout();
+                        me.activity.addContentView(me.rootLayout, me.rootLayout.getLayoutParams());
+                        me.rootLayout.addView(me.createOfflineView());
+                        Metrics.end("overlay.create", start);
                     }
+
+                    me.rootLayout.setVisibility(View.VISIBLE);
                 }
             });
         }
     }
 
+    /**
+    * Releases memory held by the plugin. When clear is false, only the least recently used half
+    * of each cache is released; otherwise the caches are emptied and the offline overlay is
+    * destroyed if it is hidden. Everything is rebuilt as it is needed again.
+    */
+    private void trimMemory(boolean clear) {
+        Log.v(LOG_TAG, clear ? "Releasing caches to free memory" : "Shrinking caches to free memory");
+        Metrics.count(clear ? "memory.clear" : "memory.trim");
+
+        ManifestState state = this.state.get();
+        this.scriptCache.trimMemory(clear);
+        state.whitelistCache.trimMemory(clear);
+        if (state.ruleIndex != null) {
+            state.ruleIndex.trimMemory(clear);
+        }
+
+        if (state.scriptBundles != null) {
+            state.scriptBundles.trimMemory(clear);
+        }
+
+        if (clear) {
+            this.assetIndex.clear();
+            this.releaseOfflineOverlay();
+        }
+    }
+
+    private void releaseOfflineOverlay() {
+        if (this.rootLayout == null || this.rootLayout.getVisibility() == View.VISIBLE) {
+            return;
+        }
+
+        ((ViewGroup) this.rootLayout.getParent()).removeView(this.rootLayout);
+        this.rootLayout = null;
+        if (this.offlineWebView != null) {
+            this.offlineWebView.destroy();
+            this.offlineWebView = null;
+        }
+    }
+
+    private JSONObject getMemoryUsage() throws JSONException {
+        ManifestState state = this.state.get();
+        JSONObject usage = new JSONObject();
+        usage.put("scriptCache", this.scriptCache.getRetainedBytes());
+        usage.put("scriptBundles", state.scriptBundles != null ? state.scriptBundles.getRetainedBytes() : 0);
+        usage.put("ruleMatches", state.ruleIndex != null ? state.ruleIndex.getRetainedBytes() : 0);
+        usage.put("whitelistDecisions", state.whitelistCache.getRetainedBytes());
+        usage.put("assetIndex", this.assetIndex.getRetainedBytes());
+        usage.put("offlineOverlay", this.rootLayout != null);
+        return usage;
+    }
+
     private void hideOfflineOverlay() {
         final HostedWebApp me = HostedWebApp.this;
         this.activity.runOnUiThread(new Runnable() {
@@ -477,13 +1033,7 @@ public class HostedWebApp extends CordovaPlugin {
 
     private JSONObject loadLocalManifest(String manifestFile) throws JSONException {
         try {
-            InputStream inputStream = this.activity.getResources().getAssets().open("www/" + manifestFile);
-            int size = inputStream.available();
-            byte[] bytes = new byte[size];
-            inputStream.read(bytes);
-            inputStream.close();
-            String jsonString = new String(bytes, "UTF-8");
-            return new JSONObject(jsonString);
+            return HostedWebApp.parseManifest(this.readManifestFile(manifestFile));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -491,86 +1041,164 @@ public class HostedWebApp extends CordovaPlugin {
         return null;
     }
 
-	private void injectScripts(final List<String> files, final ValueCallback<String> resultCallback) {
+    private String readManifestFile(String manifestFile) throws IOException {
+        long start = Metrics.start("manifest.read");
+        try {
+            InputStream inputStream = this.activity.getResources().getAssets().open("www/" + manifestFile);
+            return StreamReader.read(inputStream);
+        } finally {
+            Metrics.end("manifest.read", start);
+        }
+    }
+
+    private static JSONObject parseManifest(String manifestText) throws JSONException {
+        long start = Metrics.start("manifest.parse");
+        try {
+            return new JSONObject(manifestText);
+        } finally {
+            Metrics.end("manifest.parse", start);
+        }
+    }
+
+    // whether the access or allow-navigation rules of config.xml restrict paths, which the Whitelist
+    // plugin enforces in addition to the rules that the hook generates from the manifest
+    private synchronized boolean hasConfigPathRules() {
+        if (this.configPathRules == null) {
+            this.configPathRules = this.readConfigPathRules();
+        }
+
+        return this.configPathRules;
+    }
+
+    private boolean readConfigPathRules() {
+        // config.xml is located the same way Cordova does
+        int id = this.activity.getResources().getIdentifier("config", "xml", this.activity.getClass().getPackage().getName());
+        if (id == 0) {
+            id = this.activity.getResources().getIdentifier("config", "xml", this.activity.getPackageName());
+        }
+
+        if (id == 0) {
+            return true;
+        }
+
+        XmlResourceParser parser = this.activity.getResources().getXml(id);
+        try {
+            for (int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                if (event != XmlPullParser.START_TAG) {
+                    continue;
+                }
+
+                String rule = null;
+                if (parser.getName().equals("access")) {
+                    rule = parser.getAttributeValue(null, "origin");
+                } else if (parser.getName().equals("allow-navigation")) {
+                    rule = parser.getAttributeValue(null, "href");
+                }
+
+                if (rule != null && ManifestScope.isPathRule(rule)) {
+                    return true;
+                }
+            }
+
+            return false;
+        } catch (XmlPullParserException e) {
+            Log.v(LOG_TAG, String.format("ERROR: failed to read the whitelist rules of config.xml: %s", e.getMessage()));
+            return true;
+        } catch (IOException e) {
+            Log.v(LOG_TAG, String.format("ERROR: failed to read the whitelist rules of config.xml: %s", e.getMessage()));
+            return true;
+        } finally {
+            parser.close();
+        }
+    }
+
+    // returns the content of the runtime manifest, or null when it is missing or cannot be read
+    private String readRuntimeManifest() {
+        if (!this.assetExists(HostedWebApp.RUNTIME_MANIFEST_FILE)) {
+            return null;
+        }
+
+        try {
+            return this.readManifestFile(HostedWebApp.RUNTIME_MANIFEST_FILE);
+        } catch (IOException e) {
+            Log.v(LOG_TAG, String.format("ERROR: failed to read the runtime manifest: %s", e.getMessage()));
+            return null;
+        }
+    }
+
+    private void injectScripts(final List<String> files, final int token, final ValueCallback<String> resultCallback) {
         final HostedWebApp me = this;
 
-        this.cordova.getThreadPool().execute(new Runnable() {
+        this.navigations.track(token, this.injectionExecutor.execute(new Runnable() {
             @Override
             public void run() {
-                String script = "";
+                StringBuilder script = new StringBuilder();
                 for (int i = 0; i < files.size(); i++) {
-                    String fileName = files.get(i);
-                    String content = "";
-                    Log.w(LOG_TAG, String.format("Injecting script: '%s'", fileName));
+                    ScriptBundles.appendScript(me.scriptCache, script, files.get(i));
+                }
 
-                    try {
-                        Uri uri = Uri.parse(fileName);
-                        if (uri.isRelative()) {
-                            // Load script file from assets
-                            try {
-                                InputStream inputStream = me.activity.getResources().getAssets().open("www/" + fileName);
-                                content = me.ReadStreamContent(inputStream);
+                me.evaluateScript(script.toString(), token, resultCallback);
+            }
+        }, PriorityExecutor.PRIORITY_BRIDGE));
+    }
 
-                            } catch (IOException e) {
-                                Log.v(LOG_TAG, String.format("ERROR: failed to load script file: '%s'", fileName));
-                                e.printStackTrace();
-                            }
-                        } else {
-                            // load script file from URL
-                            URL url = new URL(fileName);
-                            try {
-                                HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-                                try {
-                                    InputStream inputStream = urlConnection.getInputStream();
-                                    content = me.ReadStreamContent(inputStream);
-                                } finally {
-                                    urlConnection.disconnect();
-                                }
-                            } catch (IOException e) {
-                                Log.v(LOG_TAG, String.format("ERROR: failed to load script file from URL: '%s'", fileName));
-                                e.printStackTrace();
-                            }
-                        }
-                    } catch (Exception e) {
-                        Log.v(LOG_TAG, String.format("ERROR: Invalid path format of script file: '%s'", fileName));
-                        e.printStackTrace();
-                    }
+    // scripts are only evaluated if the page they were read for is still loaded
+    private void evaluateScript(final String script, final int token, ValueCallback<String> callback) {
+        final HostedWebApp me = this;
+        final ValueCallback<String> resultCallback = Metrics.isEnabled() ? measureEvaluation(script, callback) : callback;
 
-                    if (!content.isEmpty()) {
-                        script += "\r\n//# sourceURL=" + fileName + "\r\n" + content;
-                    }
+        this.activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (!me.navigations.isCurrent(token)) {
+                    Log.v(LOG_TAG, "Discarding script read for a previous page");
+                    Metrics.count("injection.stale");
+                    return;
                 }
 
-                final String scriptToInject = script;
-                me.activity.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        View webView = me.webView.getEngine().getView();
+                View webView = me.webView.getEngine().getView();
 
-                        try {
-                            Method evaluateJavaScriptMethod = webView.getClass().getMethod("evaluateJavascript", new Class[]{ String.class, (Class<ValueCallback<String>>)(Class<?>)ValueCallback.class });
-                            evaluateJavaScriptMethod.invoke(webView, scriptToInject, resultCallback);
-                        } catch (Exception e) {
-                            Log.v(LOG_TAG, String.format("WARNING: Webview does not support 'evaluateJavascript' method. Webview type: '%s'", webView.getClass().getName()));
-                            me.webView.getEngine().loadUrl("javascript:" + scriptToInject, false);
+                // resolve the method once; it is not available in WebViews prior to KitKat
+                if (!me.evaluateJavascriptResolved) {
+                    try {
+                        me.evaluateJavascriptMethod = webView.getClass().getMethod("evaluateJavascript", new Class[]{ String.class, (Class<ValueCallback<String>>)(Class<?>)ValueCallback.class });
+                    } catch (NoSuchMethodException e) {
+                        Log.v(LOG_TAG, String.format("WARNING: Webview does not support 'evaluateJavascript' method. Webview type: '%s'", webView.getClass().getName()));
+                    }
 
-                            if (resultCallback != null) {
-                                resultCallback.onReceiveValue(null);
-                            }
-                        }
+                    me.evaluateJavascriptResolved = true;
+                }
+
+                if (me.evaluateJavascriptMethod != null) {
+                    try {
+                        me.evaluateJavascriptMethod.invoke(webView, script, resultCallback);
+                        return;
+                    } catch (Exception e) {
+                        Log.v(LOG_TAG, String.format("WARNING: failed to invoke 'evaluateJavascript' method. Webview type: '%s'", webView.getClass().getName()));
                     }
-                });
+                }
+
+                me.webView.getEngine().loadUrl("javascript:" + script, false);
+
+                if (resultCallback != null) {
+                    resultCallback.onReceiveValue(null);
+                }
             }
         });
     }
 
-    private String ReadStreamContent(InputStream inputStream) throws IOException {
-        int size = inputStream.available();
-        byte[] bytes = new byte[size];
-        inputStream.read(bytes);
-        inputStream.close();
-        String content = new String(bytes, "UTF-8");
-
-        return content;
+    // records the size of a script and the time until the WebView reports its evaluation
+    private static ValueCallback<String> measureEvaluation(String script, final ValueCallback<String> callback) {
+        Metrics.size("script.injectedChars", script.length());
+        final long start = Metrics.now();
+        return new ValueCallback<String>() {
+            @Override
+            public void onReceiveValue(String value) {
+                Metrics.elapsed("script.evaluate", start);
+                if (callback != null) {
+                    callback.onReceiveValue(value);
+                }
+            }
+        };
     }
 }
@@ -0,0 +1,82 @@
+package com.manifoldjs.hostedwebapp;
+
+import org.apache.cordova.Whitelist;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+* URLs that belong to the hosted web app.
+*
+* The scope is built from the manifest the same way the plugin hook builds the allow-navigation
+* rules in config.xml: start_url resolved with scope, plus mjs_extended_scope and mjs_access_whitelist.
+*/
+class ManifestScope {
+    private final Whitelist whitelist = new Whitelist();
+    private boolean empty = true;
+    private boolean pathRules;
+
+    private ManifestScope() {
+    }
+
+    static ManifestScope compile(RuntimeManifest manifest) {
+        ManifestScope scope = new ManifestScope();
+
+        String startUrl = manifest.startUrl;
+        if (!startUrl.isEmpty()) {
+            try {
+                String baseUrlPattern = startUrl;
+                String scopeUrl = manifest.scope;
+                if (!scopeUrl.isEmpty()) {
+                    baseUrlPattern = new URL(new URL(startUrl), scopeUrl).toString();
+                }
+
+                // If there are no wildcards in the pattern, add '*' at the end
+                if (baseUrlPattern.indexOf('*') == -1) {
+                    baseUrlPattern = new URL(new URL(baseUrlPattern), "*").toString();
+                }
+
+                scope.add(baseUrlPattern);
+            } catch (MalformedURLException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // mjs_extended_scope, then mjs_access_whitelist
+        for (String rule : manifest.scopeRules) {
+            scope.add(rule);
+        }
+
+        return scope;
+    }
+
+    boolean contains(String url) {
+        return !this.empty && this.whitelist.isUrlWhiteListed(url);
+    }
+
+    /**
+    * Returns whether any rule restricts the paths of its origin.
+    */
+    boolean hasPathRules() {
+        return this.pathRules;
+    }
+
+    /**
+    * Returns whether a whitelist pattern restricts the paths of its origin.
+    */
+    static boolean isPathRule(String rule) {
+        int authorityStart = rule.indexOf("://");
+        int pathStart = authorityStart >= 0 ? rule.indexOf('/', authorityStart + 3) : -1;
+        String path = pathStart >= 0 ? rule.substring(pathStart) : "";
+        return !path.isEmpty() && !path.equals("/") && !path.equals("/*");
+    }
+
+    private void add(String rule) {
+        this.whitelist.addWhiteListEntry(rule, false);
+        this.empty = false;
+
+        if (isPathRule(rule)) {
+            this.pathRules = true;
+        }
+    }
+}
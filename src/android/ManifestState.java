@@ -0,0 +1,56 @@
+package com.manifoldjs.hostedwebapp;
+
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+* Immutable snapshot of the loaded manifest and the structures compiled from it.
+*
+* The plugin publishes a new snapshot each time a manifest is loaded, so a thread that reads the
+* current snapshot always sees a manifest together with its own rules, scripts and caches. The
+* manifest object must not be modified once it is part of a snapshot. A snapshot compiled from the
+* runtime manifest only parses the manifest JSON when the manifest is requested.
+*/
+final class ManifestState {
+    static final ManifestState EMPTY = new ManifestState(null, "", null, null, null, null, null, null, Collections.<String>emptyList(), true,
+            new WhitelistCache(false), ConnectionPolicy.NONE);
+
+    private final StartupManifest manifest;
+    final String startUrl;
+    final RuleIndex ruleIndex;
+    final ScriptBundles scriptBundles;
+    final DocumentInjector documentInjector;
+    final CordovaAssets cordovaAssets;
+    final ManifestScope scope;
+    final OfflineCache offlineCache;
+    final List<String> precacheUrls;
+    final boolean offlineFeature;
+    final WhitelistCache whitelistCache;
+    final ConnectionPolicy connectionPolicy;
+
+    ManifestState(StartupManifest manifest, String startUrl, RuleIndex ruleIndex, ScriptBundles scriptBundles, DocumentInjector documentInjector,
+            CordovaAssets cordovaAssets, ManifestScope scope, OfflineCache offlineCache, List<String> precacheUrls, boolean offlineFeature,
+            WhitelistCache whitelistCache, ConnectionPolicy connectionPolicy) {
+        this.manifest = manifest;
+        this.startUrl = startUrl;
+        this.ruleIndex = ruleIndex;
+        this.scriptBundles = scriptBundles;
+        this.documentInjector = documentInjector;
+        this.cordovaAssets = cordovaAssets;
+        this.scope = scope;
+        this.offlineCache = offlineCache;
+        this.precacheUrls = Collections.unmodifiableList(precacheUrls);
+        this.offlineFeature = offlineFeature;
+        this.whitelistCache = whitelistCache;
+        this.connectionPolicy = connectionPolicy;
+    }
+
+    /**
+    * Returns the manifest, parsing the manifest text the first time it is requested.
+    */
+    JSONObject getManifest() {
+        return this.manifest != null ? this.manifest.getJson() : null;
+    }
+}
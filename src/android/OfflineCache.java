@@ -0,0 +1,367 @@
+package com.manifoldjs.hostedwebapp;
+
+import android.net.Uri;
+import android.util.Log;
+
+import org.apache.cordova.CordovaResourceApi;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+* Disk cache of the responses of the hosted web app, used while the device is offline.
+*
+* Successful GET responses for documents and static resources in the manifest scope are recorded
+* as they are precached or as documents are loaded by the injector, and served from the cache
+* while they are fresh or when the network is unavailable. Any other request is loaded by the
+* WebView itself, so redirects, error statuses and response headers are never lost. Responses that
+* had policy headers, such as a Content-Security-Policy, are only served while offline, since the
+* headers are not replayed. Text in a charset other than UTF-8 is converted when it is served, since
+* the WebView decodes the responses of the plugin as UTF-8.
+* The cache is kept within a size budget, evicting least recently used responses. The metadata of
+* recently requested URLs, including the ones that are not cached, is kept in memory, so checking
+* whether a response can be served does not read the disk.
+*/
+class OfflineCache {
+    private static final String LOG_TAG = "HostedWebApp";
+    private static final String CACHE_FOLDER = "hostedwebapp-offline";
+    private static final String BODY_EXTENSION = ".body";
+    private static final String METADATA_EXTENSION = ".meta";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final int MAX_METADATA_ENTRIES = 256;
+
+    // marks the URLs that are not cached
+    private static final Properties NOT_CACHED = new Properties();
+
+    // requests for these resources are assumed to be GET requests
+    private static final Set<String> STATIC_EXTENSIONS = new HashSet<String>(Arrays.asList(
+            "html", "htm", "css", "js", "png", "jpg", "jpeg", "gif", "svg", "webp", "ico",
+            "woff", "woff2", "ttf", "otf", "eot"));
+
+    private final CacheFolder cacheFolder;
+
+    // the metadata of the entries, by cache folder key
+    private final BoundedCache<String, Properties> metadata = new BoundedCache<String, Properties>(MAX_METADATA_ENTRIES);
+
+    OfflineCache(File cacheDir, long maxBytes) {
+        final OfflineCache me = this;
+        this.cacheFolder = new CacheFolder(cacheDir, CACHE_FOLDER, maxBytes) {
+            @Override
+            void evicted(String key) {
+                me.metadata.remove(key);
+            }
+        };
+    }
+
+    /**
+    * Returns whether a request that is not a navigation can be recorded.
+    */
+    static boolean isStaticResource(Uri uri) {
+        String path = uri.getPath();
+        if (path == null) {
+            return false;
+        }
+
+        int extension = path.lastIndexOf('.');
+        return extension > path.lastIndexOf('/') && STATIC_EXTENSIONS.contains(path.substring(extension + 1).toLowerCase());
+    }
+
+    boolean contains(String url) {
+        return this.cacheFolder.getFile(url, BODY_EXTENSION).exists();
+    }
+
+    /**
+    * Returns whether the cached response for a URL is still fresh and can be served while online.
+    */
+    boolean isFresh(String url) {
+        Properties metadata = this.getMetadata(url);
+        if (metadata == null || !isFresh(metadata) || metadata.getProperty("policyHeaders") != null || !this.contains(url)) {
+            Metrics.count("offlineCache.freshMiss");
+            return false;
+        }
+
+        Metrics.count("offlineCache.freshHit");
+        return true;
+    }
+
+    /**
+    * Returns the cached response for a URL if it is still fresh, or null otherwise.
+    */
+    CordovaResourceApi.OpenForReadResult openFresh(Uri uri, String url) {
+        return this.isFresh(url) ? this.open(uri, url) : null;
+    }
+
+    /**
+    * Returns the cached response for a URL, or null if there is none.
+    */
+    CordovaResourceApi.OpenForReadResult open(Uri uri, String url) {
+        File bodyFile = this.cacheFolder.getFile(url, BODY_EXTENSION);
+        File metadataFile = this.cacheFolder.getFile(url, METADATA_EXTENSION);
+        if (!bodyFile.exists()) {
+            Metrics.count("offlineCache.miss");
+            return null;
+        }
+
+        try {
+            Properties metadata = this.getMetadata(url);
+            if (metadata == null) {
+                Metrics.count("offlineCache.miss");
+                return null;
+            }
+
+            Metrics.count("offlineCache.hit");
+
+            this.cacheFolder.touch(bodyFile);
+            Log.v(LOG_TAG, String.format("Serving response from offline cache: '%s'", url));
+            InputStream bodyStream = new FileInputStream(bodyFile);
+            InputStream body = TranscodingInputStream.toUtf8(bodyStream, metadata.getProperty("encoding"));
+            return new CordovaResourceApi.OpenForReadResult(uri, body, metadata.getProperty("mimeType"), body == bodyStream ? bodyFile.length() : -1, null);
+        } catch (IOException e) {
+            Log.v(LOG_TAG, String.format("ERROR: failed to read cached response: '%s'", url));
+            synchronized (this.cacheFolder) {
+                bodyFile.delete();
+                metadataFile.delete();
+                this.metadata.remove(CacheFolder.getKey(url));
+            }
+        }
+
+        return null;
+    }
+
+    /**
+    * Returns the metadata of the cached response for a URL, or null if there is none.
+    */
+    Properties getMetadata(String url) {
+        String key = CacheFolder.getKey(url);
+        Properties metadata = this.metadata.get(key);
+        if (metadata == null) {
+            // read under the lock of the folder, so an entry being stored is not marked as missing
+            synchronized (this.cacheFolder) {
+                metadata = NOT_CACHED;
+                File metadataFile = this.cacheFolder.getFile(url, METADATA_EXTENSION);
+                if (metadataFile.exists()) {
+                    try {
+                        metadata = readMetadata(metadataFile);
+                    } catch (IOException e) {
+                        return null;
+                    }
+                }
+
+                this.metadata.put(key, metadata);
+            }
+        }
+
+        return metadata != NOT_CACHED && url.equals(metadata.getProperty("url")) ? metadata : null;
+    }
+
+    static boolean isFresh(Properties metadata) {
+        try {
+            return System.currentTimeMillis() < Long.parseLong(metadata.getProperty("expires", "0"));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+    * Adds the validators of a cached response to a conditional request.
+    */
+    void addValidators(String url, HttpURLConnection urlConnection) {
+        Properties metadata = this.getMetadata(url);
+        if (metadata != null && this.contains(url)) {
+            if (metadata.getProperty("etag") != null) {
+                urlConnection.setRequestProperty("If-None-Match", metadata.getProperty("etag"));
+            }
+
+            if (metadata.getProperty("lastModified") != null) {
+                urlConnection.setRequestProperty("If-Modified-Since", metadata.getProperty("lastModified"));
+            }
+        }
+    }
+
+    /**
+    * Extends the freshness of a cached response after a Not Modified response.
+    */
+    void revalidated(String url, HttpURLConnection urlConnection) {
+        Properties metadata = this.getMetadata(url);
+        if (metadata != null) {
+            metadata.setProperty("expires", Long.toString(ResourceLoader.getExpiration(urlConnection.getHeaderField("Cache-Control"))));
+            try {
+                this.writeMetadata(url, metadata);
+            } catch (IOException e) {
+                Log.v(LOG_TAG, String.format("ERROR: failed to cache response: '%s'", url));
+            }
+        }
+    }
+
+    /**
+    * Returns a stream that stores the response in the cache once it has been read completely.
+    */
+    InputStream record(final String url, HttpURLConnection urlConnection, InputStream body) {
+        String cacheControl = urlConnection.getHeaderField("Cache-Control");
+        if (body == null || ResourceLoader.isNoStore(cacheControl) || !this.cacheFolder.ensureExists()) {
+            return body;
+        }
+
+        final Properties metadata = new Properties();
+        metadata.setProperty("url", url);
+        metadata.setProperty("expires", Long.toString(ResourceLoader.getExpiration(cacheControl)));
+        String mimeType = ResourceLoader.getMimeType(urlConnection);
+        if (mimeType != null) {
+            metadata.setProperty("mimeType", mimeType);
+        }
+
+        String encoding = ResourceLoader.getEncoding(urlConnection);
+        if (encoding != null) {
+            metadata.setProperty("encoding", encoding);
+        }
+
+        String etag = urlConnection.getHeaderField("ETag");
+        if (etag != null) {
+            metadata.setProperty("etag", etag);
+        }
+
+        String lastModified = urlConnection.getHeaderField("Last-Modified");
+        if (lastModified != null) {
+            metadata.setProperty("lastModified", lastModified);
+        }
+
+        if (ResourceLoader.hasPolicyHeaders(urlConnection)) {
+            metadata.setProperty("policyHeaders", "true");
+        }
+
+        final File tempFile = this.cacheFolder.getFile(url, TEMP_EXTENSION + Thread.currentThread().getId());
+        final OutputStream output;
+        try {
+            output = new FileOutputStream(tempFile);
+        } catch (IOException e) {
+            return body;
+        }
+
+        final OfflineCache me = this;
+        return new FilterInputStream(body) {
+            private boolean complete;
+            private boolean failed;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b == -1) {
+                    this.complete = true;
+                } else {
+                    this.write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) throws IOException {
+                int read = super.read(buffer, offset, count);
+                if (read == -1) {
+                    this.complete = true;
+                } else {
+                    this.write(buffer, offset, read);
+                }
+
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                // skipped content cannot be recorded
+                this.failed = true;
+                return super.skip(n);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    try {
+                        output.close();
+                    } catch (IOException e) {
+                        this.failed = true;
+                    }
+
+                    if (this.complete && !this.failed) {
+                        me.commit(url, metadata, tempFile);
+                    } else {
+                        tempFile.delete();
+                    }
+                }
+            }
+
+            private void write(byte[] buffer, int offset, int count) {
+                if (!this.failed) {
+                    try {
+                        output.write(buffer, offset, count);
+                    } catch (IOException e) {
+                        this.failed = true;
+                    }
+                }
+            }
+        };
+    }
+
+    private void commit(String url, Properties metadata, File tempFile) {
+        File bodyFile = this.cacheFolder.getFile(url, BODY_EXTENSION);
+        File metadataFile = this.cacheFolder.getFile(url, METADATA_EXTENSION);
+        try {
+            synchronized (this.cacheFolder) {
+                if (!tempFile.renameTo(bodyFile)) {
+                    throw new IOException("Failed to store response body");
+                }
+
+                this.writeMetadata(url, metadata);
+            }
+        } catch (IOException e) {
+            Log.v(LOG_TAG, String.format("ERROR: failed to cache response: '%s'", url));
+            synchronized (this.cacheFolder) {
+                tempFile.delete();
+                bodyFile.delete();
+                metadataFile.delete();
+                this.metadata.remove(CacheFolder.getKey(url));
+            }
+
+            return;
+        }
+
+        this.cacheFolder.trim(url, bodyFile, metadataFile);
+    }
+
+    private void writeMetadata(String url, Properties metadata) throws IOException {
+        synchronized (this.cacheFolder) {
+            OutputStream outputStream = new FileOutputStream(this.cacheFolder.getFile(url, METADATA_EXTENSION));
+            try {
+                metadata.store(outputStream, null);
+            } finally {
+                outputStream.close();
+            }
+
+            this.metadata.put(CacheFolder.getKey(url), metadata);
+        }
+    }
+
+    private static Properties readMetadata(File metadataFile) throws IOException {
+        Properties metadata = new Properties();
+        InputStream metadataStream = new FileInputStream(metadataFile);
+        try {
+            metadata.load(metadataStream);
+        } finally {
+            metadataStream.close();
+        }
+
+        return metadata;
+    }
+}
@@ -0,0 +1,143 @@
+package com.manifoldjs.hostedwebapp;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* Warms the offline cache with the resources of the hosted web app in the background.
+*
+* Resources are fetched a few at a time on low priority threads, skipping the ones that are still
+* fresh and revalidating the stale ones. Each run stops once it has downloaded its byte budget,
+* and can be cancelled when the app goes to the background. Redirects are not followed, and only
+* successful responses are recorded. The requests carry the cookies of the WebView, so the cached
+* pages are the ones the user would see, but cookies set by the responses are discarded so they
+* cannot replace the session of the pages that are loaded.
+*/
+class Precacher {
+    private static final String LOG_TAG = "HostedWebApp";
+    private static final int MAX_CONCURRENT_REQUESTS = 2;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final OfflineCache offlineCache;
+    private final String userAgent;
+    private final long maxBytes;
+    private final ThreadPoolExecutor executor;
+    private final List<Future<?>> pending = new ArrayList<Future<?>>();
+
+    Precacher(OfflineCache offlineCache, String userAgent, long maxBytes) {
+        this.offlineCache = offlineCache;
+        this.userAgent = userAgent;
+        this.maxBytes = maxBytes;
+        this.executor = new ThreadPoolExecutor(MAX_CONCURRENT_REQUESTS, MAX_CONCURRENT_REQUESTS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "HostedWebApp-precache");
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+    * Starts precaching a list of URLs, cancelling any previous run.
+    */
+    synchronized void start(List<String> urls) {
+        this.cancel();
+
+        final AtomicLong budget = new AtomicLong(this.maxBytes);
+        final Precacher me = this;
+        Log.v(LOG_TAG, String.format("Precaching %d resources", urls.size()));
+        for (final String url : urls) {
+            this.pending.add(this.executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (budget.get() > 0 && !Thread.currentThread().isInterrupted()) {
+                        me.fetch(url, budget);
+                    }
+                }
+            }));
+        }
+    }
+
+    /**
+    * Cancels the resources that have not been precached yet.
+    */
+    synchronized void cancel() {
+        for (Future<?> future : this.pending) {
+            future.cancel(true);
+        }
+
+        this.pending.clear();
+        this.executor.purge();
+    }
+
+    void shutdown() {
+        this.cancel();
+        this.executor.shutdownNow();
+    }
+
+    private void fetch(String url, AtomicLong budget) {
+        Properties metadata = this.offlineCache.getMetadata(url);
+        if (metadata != null && OfflineCache.isFresh(metadata) && this.offlineCache.contains(url)) {
+            return;
+        }
+
+        HttpURLConnection urlConnection = null;
+        try {
+            urlConnection = ResourceLoader.openWebConnection(url, this.userAgent);
+            urlConnection.setInstanceFollowRedirects(false);
+            this.offlineCache.addValidators(url, urlConnection);
+
+            int responseCode = urlConnection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                this.offlineCache.revalidated(url, urlConnection);
+                return;
+            }
+
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                Log.v(LOG_TAG, String.format("Precache request failed with status %d: '%s'", responseCode, url));
+                return;
+            }
+
+            InputStream body = this.offlineCache.record(url, urlConnection, urlConnection.getInputStream());
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int count;
+                while ((count = body.read(buffer)) != -1) {
+                    if (budget.addAndGet(-count) < 0 || Thread.currentThread().isInterrupted()) {
+                        // an incomplete read is not committed to the cache
+                        Log.v(LOG_TAG, String.format("Precache stopped before completing: '%s'", url));
+                        return;
+                    }
+                }
+            } finally {
+                body.close();
+            }
+        } catch (IOException e) {
+            Log.v(LOG_TAG, String.format("Precache request failed: '%s'", url));
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+        }
+    }
+}
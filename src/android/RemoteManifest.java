@@ -0,0 +1,175 @@
+package com.manifoldjs.hostedwebapp;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Properties;
+
+/**
+* Loads manifests from HTTPS URLs.
+*
+* The last manifest downloaded from each URL is kept in the app cache, so it can be used right
+* away on the next load while a conditional request checks the server for a newer version.
+*/
+class RemoteManifest {
+    private static final String LOG_TAG = "HostedWebApp";
+    private static final String CACHE_FOLDER = "hostedwebapp-manifests";
+    private static final long CACHE_SIZE = 1024 * 1024;
+    private static final int MAX_MANIFEST_SIZE = 512 * 1024;
+    private static final String CONTENT_EXTENSION = ".json";
+    private static final String METADATA_EXTENSION = ".meta";
+
+    private final CacheFolder cacheFolder;
+    private final String userAgent;
+
+    RemoteManifest(File cacheDir, String userAgent) {
+        this.cacheFolder = new CacheFolder(cacheDir, CACHE_FOLDER, CACHE_SIZE);
+        this.userAgent = userAgent;
+    }
+
+    static boolean isRemote(String location) {
+        return location.regionMatches(true, 0, "https://", 0, "https://".length());
+    }
+
+    /**
+    * Returns the cached copy of a manifest, or null if there is none.
+    */
+    JSONObject loadCached(String url) {
+        File contentFile = this.cacheFolder.getFile(url, CONTENT_EXTENSION);
+        Properties metadata = this.readMetadata(url);
+        if (!contentFile.exists() || metadata == null) {
+            return null;
+        }
+
+        try {
+            JSONObject manifest = new JSONObject(StreamReader.read(new FileInputStream(contentFile), MAX_MANIFEST_SIZE));
+            this.cacheFolder.touch(contentFile);
+            return manifest;
+        } catch (IOException e) {
+            Log.v(LOG_TAG, String.format("ERROR: failed to read cached manifest: '%s'", url));
+        } catch (JSONException e) {
+            Log.v(LOG_TAG, String.format("ERROR: invalid cached manifest: '%s'", url));
+        }
+
+        contentFile.delete();
+        return null;
+    }
+
+    /**
+    * Downloads a manifest, revalidating the cached copy if there is one.
+    * Returns null if the cached copy is still current.
+    */
+    JSONObject fetch(String url) throws IOException, JSONException {
+        HttpURLConnection urlConnection = ResourceLoader.openConnection(url, this.userAgent);
+        long start = Metrics.start("manifest.fetch");
+        try {
+            Properties metadata = this.readMetadata(url);
+            boolean cached = metadata != null && this.cacheFolder.getFile(url, CONTENT_EXTENSION).exists();
+            if (cached) {
+                if (metadata.getProperty("etag") != null) {
+                    urlConnection.setRequestProperty("If-None-Match", metadata.getProperty("etag"));
+                }
+
+                if (metadata.getProperty("lastModified") != null) {
+                    urlConnection.setRequestProperty("If-Modified-Since", metadata.getProperty("lastModified"));
+                }
+            }
+
+            int responseCode = urlConnection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached) {
+                Log.v(LOG_TAG, String.format("Manifest not modified: '%s'", url));
+                return null;
+            }
+
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException(String.format("Manifest request failed with status %d", responseCode));
+            }
+
+            String content = StreamReader.read(urlConnection.getInputStream(), MAX_MANIFEST_SIZE);
+            JSONObject manifest = new JSONObject(content);
+
+            Properties newMetadata = new Properties();
+            newMetadata.setProperty("url", url);
+            if (urlConnection.getHeaderField("ETag") != null) {
+                newMetadata.setProperty("etag", urlConnection.getHeaderField("ETag"));
+            }
+
+            if (urlConnection.getHeaderField("Last-Modified") != null) {
+                newMetadata.setProperty("lastModified", urlConnection.getHeaderField("Last-Modified"));
+            }
+
+            this.store(url, content, newMetadata);
+            return manifest;
+        } finally {
+            urlConnection.disconnect();
+            Metrics.end("manifest.fetch", start);
+        }
+    }
+
+    private void store(String url, String content, Properties metadata) {
+        if (!this.cacheFolder.ensureExists()) {
+            return;
+        }
+
+        File contentFile = this.cacheFolder.getFile(url, CONTENT_EXTENSION);
+        File metadataFile = this.cacheFolder.getFile(url, METADATA_EXTENSION);
+        try {
+            synchronized (this.cacheFolder) {
+                write(contentFile, content.getBytes("UTF-8"));
+
+                OutputStream outputStream = new FileOutputStream(metadataFile);
+                try {
+                    metadata.store(outputStream, null);
+                } finally {
+                    outputStream.close();
+                }
+            }
+        } catch (IOException e) {
+            Log.v(LOG_TAG, String.format("ERROR: failed to cache manifest: '%s'", url));
+            contentFile.delete();
+            metadataFile.delete();
+            return;
+        }
+
+        this.cacheFolder.trim(url, contentFile, metadataFile);
+    }
+
+    private Properties readMetadata(String url) {
+        File metadataFile = this.cacheFolder.getFile(url, METADATA_EXTENSION);
+        if (!metadataFile.exists()) {
+            return null;
+        }
+
+        Properties metadata = new Properties();
+        try {
+            InputStream inputStream = new FileInputStream(metadataFile);
+            try {
+                metadata.load(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        return url.equals(metadata.getProperty("url")) ? metadata : null;
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content);
+        } finally {
+            outputStream.close();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.manifoldjs.hostedwebapp;
+
+import android.webkit.CookieManager;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+* Helpers for the HTTP requests issued by the plugin.
+*/
+final class ResourceLoader {
+    static final int CONNECT_TIMEOUT = 5000;
+    static final int READ_TIMEOUT = 10000;
+
+    // headers that restrict what a page can do, or who can read a response
+    private static final String[] POLICY_HEADERS = {
+            "Content-Security-Policy", "Content-Security-Policy-Report-Only", "Access-Control-Allow-Origin" };
+
+    private ResourceLoader() {
+    }
+
+    /**
+    * Opens a connection with the plugin timeouts.
+    */
+    static HttpURLConnection openConnection(String url, String userAgent) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(url).openConnection();
+        urlConnection.setConnectTimeout(CONNECT_TIMEOUT);
+        urlConnection.setReadTimeout(READ_TIMEOUT);
+        if (userAgent != null) {
+            urlConnection.setRequestProperty("User-Agent", userAgent);
+        }
+
+        return urlConnection;
+    }
+
+    /**
+    * Opens a connection on behalf of the WebView, sharing its cookies.
+    */
+    static HttpURLConnection openWebConnection(String url, String userAgent) throws IOException {
+        HttpURLConnection urlConnection = openConnection(url, userAgent);
+        String cookies = CookieManager.getInstance().getCookie(url);
+        if (cookies != null) {
+            urlConnection.setRequestProperty("Cookie", cookies);
+        }
+
+        return urlConnection;
+    }
+
+    /**
+    * Stores the cookies set by a response opened with openWebConnection.
+    */
+    static void storeCookies(HttpURLConnection urlConnection, String url) {
+        CookieManager cookieManager = CookieManager.getInstance();
+        for (Map.Entry<String, List<String>> header : urlConnection.getHeaderFields().entrySet()) {
+            if ("Set-Cookie".equalsIgnoreCase(header.getKey())) {
+                for (String cookie : header.getValue()) {
+                    cookieManager.setCookie(url, cookie);
+                }
+            }
+        }
+    }
+
+    /**
+    * Wraps a response body so that closing it releases the connection.
+    */
+    static InputStream disconnectOnClose(InputStream body, final HttpURLConnection urlConnection) {
+        if (body == null) {
+            urlConnection.disconnect();
+            return null;
+        }
+
+        return new FilterInputStream(body) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    urlConnection.disconnect();
+                }
+            }
+        };
+    }
+
+    /**
+    * Returns whether a response has policy headers, which are lost when the plugin serves the
+    * response to the WebView instead of letting it load the resource.
+    */
+    static boolean hasPolicyHeaders(HttpURLConnection urlConnection) {
+        for (String header : POLICY_HEADERS) {
+            if (urlConnection.getHeaderField(header) != null) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+    * Returns the MIME type of a response without its parameters.
+    */
+    static String getMimeType(HttpURLConnection urlConnection) {
+        String contentType = urlConnection.getContentType();
+        if (contentType == null) {
+            return null;
+        }
+
+        int separator = contentType.indexOf(';');
+        if (separator >= 0) {
+            contentType = contentType.substring(0, separator);
+        }
+
+        return contentType.trim().toLowerCase();
+    }
+
+    /**
+    * Returns the charset of a response, or null if not specified.
+    */
+    static String getEncoding(HttpURLConnection urlConnection) {
+        String contentType = urlConnection.getContentType();
+        if (contentType == null) {
+            return null;
+        }
+
+        for (String parameter : contentType.split(";")) {
+            parameter = parameter.trim();
+            if (parameter.toLowerCase().startsWith("charset=")) {
+                return parameter.substring("charset=".length()).replace("\"", "").trim();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+    * Returns the time until which a response is fresh according to its Cache-Control header.
+    */
+    static long getExpiration(String cacheControl) {
+        return CacheControl.parse(cacheControl).getExpiration(System.currentTimeMillis());
+    }
+
+    static boolean isNoStore(String cacheControl) {
+        return CacheControl.parse(cacheControl).noStore;
+    }
+}
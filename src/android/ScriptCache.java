@@ -0,0 +1,207 @@
+package com.manifoldjs.hostedwebapp;
+
+import android.content.res.AssetManager;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Properties;
+
+/**
+* Two-tier cache for the content of injected scripts.
+*
+* Scripts are kept in an in-memory LRU bounded by size. Scripts downloaded from absolute URLs
+* are also persisted to a bounded store in the app cache folder. When scripts are served and
+* revalidated is decided by CachingScriptLoader.
+*/
+class ScriptCache extends CachingScriptLoader {
+    private static final String LOG_TAG = "HostedWebApp";
+    private static final String CACHE_FOLDER = "hostedwebapp-scripts";
+    private static final String CONTENT_EXTENSION = ".js";
+    private static final String METADATA_EXTENSION = ".meta";
+
+    private final AssetManager assetManager;
+    private final CacheFolder cacheFolder;
+    private final LruCache<String, Entry> memoryCache;
+
+    ScriptCache(AssetManager assetManager, File cacheDir, int maxMemoryBytes, long maxDiskBytes) {
+        this.assetManager = assetManager;
+        this.cacheFolder = new CacheFolder(cacheDir, CACHE_FOLDER, maxDiskBytes);
+        this.memoryCache = new LruCache<String, Entry>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                // strings are stored as UTF-16
+                return entry.content.length() * 2;
+            }
+        };
+    }
+
+    /**
+    * Releases the scripts kept in memory, or the least recently used ones until the cache is at
+    * most half full. Scripts are read again from the disk cache as they are needed.
+    */
+    void trimMemory(boolean clear) {
+        if (clear) {
+            this.memoryCache.evictAll();
+            return;
+        }
+
+        int maxSize = this.memoryCache.maxSize() / 2;
+        for (String source : this.memoryCache.snapshot().keySet()) {
+            if (this.memoryCache.size() <= maxSize) {
+                break;
+            }
+
+            this.memoryCache.remove(source);
+        }
+    }
+
+    /**
+    * Size of the scripts kept in memory, which are stored as UTF-16.
+    */
+    long getRetainedBytes() {
+        return this.memoryCache.size();
+    }
+
+    /**
+    * Returns the content of a script, either a path relative to the www folder or an absolute URL.
+    */
+    String get(String source) throws IOException {
+        Entry entry = this.getEntry(source);
+        return entry.content;
+    }
+
+    @Override
+    Entry getFromMemory(String source) {
+        return this.memoryCache.get(source);
+    }
+
+    @Override
+    void putInMemory(String source, Entry entry) {
+        this.memoryCache.put(source, entry);
+    }
+
+    @Override
+    Entry readPackaged(String source) throws IOException {
+        // package assets never change while the app is running
+        InputStream inputStream = this.assetManager.open("www/" + source);
+        return new Entry(StreamReader.read(inputStream), null, null, Long.MAX_VALUE);
+    }
+
+    @Override
+    Entry readStored(String source) {
+        return this.readFromDisk(source);
+    }
+
+    @Override
+    void store(String source, Entry entry) {
+        this.writeToDisk(source, entry);
+    }
+
+    @Override
+    void updateStored(String source, Entry entry) {
+        this.updateMetadata(source, entry);
+    }
+
+    @Override
+    HttpURLConnection openConnection(String source) throws IOException {
+        return ResourceLoader.openConnection(source, null);
+    }
+
+    private synchronized Entry readFromDisk(String source) {
+        File contentFile = this.cacheFolder.getFile(source, CONTENT_EXTENSION);
+        File metadataFile = this.cacheFolder.getFile(source, METADATA_EXTENSION);
+        if (!contentFile.exists() || !metadataFile.exists()) {
+            return null;
+        }
+
+        try {
+            Properties metadata = new Properties();
+            InputStream metadataStream = new FileInputStream(metadataFile);
+            try {
+                metadata.load(metadataStream);
+            } finally {
+                metadataStream.close();
+            }
+
+            if (!source.equals(metadata.getProperty("url"))) {
+                return null;
+            }
+
+            String content = StreamReader.read(new FileInputStream(contentFile));
+            this.cacheFolder.touch(contentFile);
+
+            return new Entry(
+                    content,
+                    metadata.getProperty("etag"),
+                    metadata.getProperty("lastModified"),
+                    Long.parseLong(metadata.getProperty("expires", "0")));
+        } catch (Exception e) {
+            Log.v(LOG_TAG, String.format("ERROR: failed to read cached script: '%s'", source));
+            contentFile.delete();
+            metadataFile.delete();
+        }
+
+        return null;
+    }
+
+    private synchronized void writeToDisk(String source, Entry entry) {
+        if (!this.cacheFolder.ensureExists()) {
+            return;
+        }
+
+        File contentFile = this.cacheFolder.getFile(source, CONTENT_EXTENSION);
+        try {
+            OutputStream outputStream = new FileOutputStream(contentFile);
+            try {
+                outputStream.write(entry.content.getBytes("UTF-8"));
+            } finally {
+                outputStream.close();
+            }
+
+            this.writeMetadata(source, entry);
+        } catch (IOException e) {
+            Log.v(LOG_TAG, String.format("ERROR: failed to cache script: '%s'", source));
+            contentFile.delete();
+            return;
+        }
+
+        this.cacheFolder.trim(source, contentFile, this.cacheFolder.getFile(source, METADATA_EXTENSION));
+    }
+
+    private synchronized void updateMetadata(String source, Entry entry) {
+        if (this.cacheFolder.getFile(source, CONTENT_EXTENSION).exists()) {
+            try {
+                this.writeMetadata(source, entry);
+            } catch (IOException e) {
+                Log.v(LOG_TAG, String.format("ERROR: failed to cache script: '%s'", source));
+            }
+        }
+    }
+
+    private synchronized void writeMetadata(String source, Entry entry) throws IOException {
+        Properties metadata = new Properties();
+        metadata.setProperty("url", source);
+        metadata.setProperty("expires", Long.toString(entry.expires));
+        if (entry.etag != null) {
+            metadata.setProperty("etag", entry.etag);
+        }
+
+        if (entry.lastModified != null) {
+            metadata.setProperty("lastModified", entry.lastModified);
+        }
+
+        OutputStream outputStream = new FileOutputStream(this.cacheFolder.getFile(source, METADATA_EXTENSION));
+        try {
+            metadata.store(outputStream, null);
+        } finally {
+            outputStream.close();
+        }
+    }
+}
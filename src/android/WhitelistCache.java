@@ -0,0 +1,141 @@
+package com.manifoldjs.hostedwebapp;
+
+import android.util.Log;
+
+import org.apache.cordova.CordovaPlugin;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* Remembers the decisions of the Whitelist plugin for the requests and navigations of the WebView.
+*
+* Decisions are kept per origin when neither the manifest rules nor the access and
+* allow-navigation rules of config.xml restrict paths, and per URL otherwise. A cache belongs to one manifest state, so it is discarded when a new manifest is
+* loaded, and it is cleared if the Whitelist plugin instance changes.
+*/
+class WhitelistCache {
+    private static final String LOG_TAG = "HostedWebApp";
+    private static final int MAX_ENTRIES = 256;
+    private static final long LOG_INTERVAL = 10000;
+    private static final int MAX_LOGS_PER_INTERVAL = 10;
+
+    private final boolean originKeys;
+    private final BoundedCache<String, Boolean> requests = new BoundedCache<String, Boolean>(MAX_ENTRIES);
+    private final BoundedCache<String, Boolean> navigations = new BoundedCache<String, Boolean>(MAX_ENTRIES);
+    private volatile CordovaPlugin whitelistPlugin;
+
+    private final AtomicLong logInterval = new AtomicLong();
+    private final AtomicInteger logCount = new AtomicInteger();
+    private final AtomicInteger suppressedLogs = new AtomicInteger();
+
+    WhitelistCache(boolean originKeys) {
+        this.originKeys = originKeys;
+    }
+
+    boolean allowRequest(CordovaPlugin whitelistPlugin, String url) {
+        return this.allow(whitelistPlugin, url, false);
+    }
+
+    boolean allowNavigation(CordovaPlugin whitelistPlugin, String url) {
+        return this.allow(whitelistPlugin, url, true);
+    }
+
+    /**
+    * Logs a rejected URL unless too many rejections were logged recently.
+    */
+    void logRejection(String url) {
+        long interval = System.currentTimeMillis() / LOG_INTERVAL;
+        if (this.logInterval.getAndSet(interval) != interval) {
+            this.logCount.set(0);
+            int suppressed = this.suppressedLogs.getAndSet(0);
+            if (suppressed > 0) {
+                Log.w(LOG_TAG, String.format("Whitelist rejections not logged: %d", suppressed));
+            }
+        }
+
+        if (this.logCount.incrementAndGet() <= MAX_LOGS_PER_INTERVAL) {
+            Log.w(LOG_TAG, String.format("Whitelist rejection: url='%s'", url));
+        } else {
+            this.suppressedLogs.incrementAndGet();
+        }
+    }
+
+    /**
+    * Releases the cached decisions, or the least recently used half of them.
+    */
+    void trimMemory(boolean clear) {
+        if (clear) {
+            this.requests.clear();
+            this.navigations.clear();
+        } else {
+            this.requests.trimToSize(MAX_ENTRIES / 2);
+            this.navigations.trimToSize(MAX_ENTRIES / 2);
+        }
+    }
+
+    /**
+    * Approximate size of the cached decisions, counting the characters of their keys.
+    */
+    long getRetainedBytes() {
+        long bytes = 0;
+        for (String key : this.requests.snapshot().keySet()) {
+            bytes += key.length() * 2;
+        }
+
+        for (String key : this.navigations.snapshot().keySet()) {
+            bytes += key.length() * 2;
+        }
+
+        return bytes;
+    }
+
+    private boolean allow(CordovaPlugin whitelistPlugin, String url, boolean navigation) {
+        if (whitelistPlugin == null) {
+            return true;
+        }
+
+        if (whitelistPlugin != this.whitelistPlugin) {
+            this.requests.clear();
+            this.navigations.clear();
+            this.whitelistPlugin = whitelistPlugin;
+        }
+
+        String key = this.getKey(url);
+        BoundedCache<String, Boolean> decisions = navigation ? this.navigations : this.requests;
+        Boolean allowed = key != null ? decisions.get(key) : null;
+        if (allowed == null) {
+            Metrics.count("whitelist.miss");
+            allowed = Boolean.TRUE == (navigation ? whitelistPlugin.shouldAllowNavigation(url) : whitelistPlugin.shouldAllowRequest(url));
+            if (key != null) {
+                decisions.put(key, allowed);
+            }
+        } else {
+            Metrics.count("whitelist.hit");
+        }
+
+        return allowed;
+    }
+
+    // scheme and authority for http(s) URLs when rules only restrict origins, the URL without its
+    // query and fragment otherwise; null for URLs without an authority
+    private String getKey(String url) {
+        int authorityStart = url.indexOf("://");
+        if (authorityStart < 0) {
+            return null;
+        }
+
+        authorityStart += 3;
+        boolean web = url.regionMatches(true, 0, "http", 0, 4);
+        int end = url.length();
+        for (int i = authorityStart; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '?' || c == '#' || (c == '/' && this.originKeys && web)) {
+                end = i;
+                break;
+            }
+        }
+
+        return this.originKeys && web ? url.substring(0, end).toLowerCase() : url.substring(0, end);
+    }
+}
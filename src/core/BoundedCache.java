@@ -0,0 +1,61 @@
+package com.manifoldjs.hostedwebapp;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+* Thread-safe cache that keeps a fixed number of entries, evicting the least recently used one.
+*
+* Used in place of android.util.LruCache by the classes that do not depend on the Android SDK.
+*/
+final class BoundedCache<K, V> {
+    private final LinkedHashMap<K, V> entries;
+
+    BoundedCache(final int maxEntries) {
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return this.size() > maxEntries;
+            }
+        };
+    }
+
+    synchronized V get(K key) {
+        return this.entries.get(key);
+    }
+
+    synchronized void put(K key, V value) {
+        this.entries.put(key, value);
+    }
+
+    synchronized V remove(K key) {
+        return this.entries.remove(key);
+    }
+
+    synchronized void clear() {
+        this.entries.clear();
+    }
+
+    synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+    * Evicts the least recently used entries until at most maxEntries remain.
+    */
+    synchronized void trimToSize(int maxEntries) {
+        Iterator<K> keys = this.entries.keySet().iterator();
+        while (this.entries.size() > maxEntries && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    /**
+    * Returns a copy of the entries, from the least to the most recently used.
+    */
+    synchronized Map<K, V> snapshot() {
+        return new LinkedHashMap<K, V>(this.entries);
+    }
+}
@@ -0,0 +1,93 @@
+package com.manifoldjs.hostedwebapp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+* The directives of a Cache-Control header that decide whether and for how long a response can
+* be reused without revalidation.
+*
+* The header is split into comma separated directives, ignoring commas inside quoted values, and
+* every directive is checked regardless of its position: no-store and no-cache always win over
+* max-age. A max-age that is not a valid number makes the response stale right away.
+*/
+final class CacheControl {
+    final boolean noStore;
+    final boolean noCache;
+
+    // in seconds, or -1 if the header has no max-age
+    final long maxAge;
+
+    private CacheControl(boolean noStore, boolean noCache, long maxAge) {
+        this.noStore = noStore;
+        this.noCache = noCache;
+        this.maxAge = maxAge;
+    }
+
+    static CacheControl parse(String header) {
+        boolean noStore = false;
+        boolean noCache = false;
+        long maxAge = -1;
+        if (header == null) {
+            return new CacheControl(false, false, -1);
+        }
+
+        for (String directive : split(header)) {
+            int separator = directive.indexOf('=');
+            String name = (separator < 0 ? directive : directive.substring(0, separator)).trim().toLowerCase();
+            String value = separator < 0 ? "" : unquote(directive.substring(separator + 1).trim());
+            if (name.equals("no-store")) {
+                noStore = true;
+            } else if (name.equals("no-cache")) {
+                noCache = true;
+            } else if (name.equals("max-age") && maxAge < 0) {
+                try {
+                    maxAge = Math.max(0, Long.parseLong(value));
+                } catch (NumberFormatException e) {
+                    maxAge = 0;
+                }
+            }
+        }
+
+        return new CacheControl(noStore, noCache, maxAge);
+    }
+
+    /**
+    * Returns the time until which the response is fresh, which is now for responses that must
+    * be revalidated.
+    */
+    long getExpiration(long now) {
+        if (this.noStore || this.noCache || this.maxAge <= 0) {
+            return now;
+        }
+
+        return now + this.maxAge * 1000;
+    }
+
+    // splits on the commas that are not inside a quoted string
+    private static List<String> split(String header) {
+        List<String> directives = new ArrayList<String>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < header.length(); i++) {
+            char c = header.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                directives.add(header.substring(start, i));
+                start = i + 1;
+            }
+        }
+
+        directives.add(header.substring(start));
+        return directives;
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1);
+        }
+
+        return value;
+    }
+}
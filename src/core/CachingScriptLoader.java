@@ -0,0 +1,160 @@
+package com.manifoldjs.hostedwebapp;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.logging.Logger;
+
+/**
+* Script loader that keeps scripts in memory and in a persistent store, and revalidates remote
+* scripts once they are stale.
+*
+* Scripts packaged with the app never change while it runs. Remote scripts are served while
+* fresh according to their Cache-Control max-age, and revalidated with ETag / If-Modified-Since
+* once stale; a stale copy is used when the request fails. While serving stale copies, as on
+* slow connections, cached scripts are used without being revalidated and only scripts that are
+* not cached at all are downloaded. Subclasses provide the memory and persistent stores and open
+* the connections.
+*/
+abstract class CachingScriptLoader implements ScriptLoader {
+    private static final Logger log = Logger.getLogger("HostedWebApp");
+
+    private volatile boolean serveStale;
+
+    /**
+    * Returns the copy of a script kept in memory, or null.
+    */
+    abstract Entry getFromMemory(String source);
+
+    abstract void putInMemory(String source, Entry entry);
+
+    /**
+    * Reads a script packaged with the app, given its path relative to the www folder.
+    */
+    abstract Entry readPackaged(String source) throws IOException;
+
+    /**
+    * Returns the persisted copy of a remote script, or null.
+    */
+    abstract Entry readStored(String source);
+
+    /**
+    * Persists a downloaded script.
+    */
+    abstract void store(String source, Entry entry);
+
+    /**
+    * Updates the validators and expiration of a persisted script after it was revalidated.
+    */
+    abstract void updateStored(String source, Entry entry);
+
+    abstract HttpURLConnection openConnection(String source) throws IOException;
+
+    /**
+    * Sets whether stale copies of remote scripts are used without revalidating them.
+    */
+    void setServeStale(boolean serveStale) {
+        this.serveStale = serveStale;
+    }
+
+    /**
+    * Revalidates a remote script even if its cached copy is still fresh.
+    */
+    void refresh(String source) throws IOException {
+        Entry entry = this.getFromMemory(source);
+        if (entry == null) {
+            entry = this.readStored(source);
+        }
+
+        Metrics.count("scriptCache.refresh");
+        this.putInMemory(source, this.fetch(source, entry));
+    }
+
+    @Override
+    public Entry getEntry(String source) throws IOException {
+        Entry entry = this.getFromMemory(source);
+        if (entry != null && (entry.isFresh() || this.serveStale)) {
+            Metrics.count(entry.isFresh() ? "scriptCache.memoryHit" : "scriptCache.memoryStale");
+            return entry;
+        }
+
+        Metrics.count("scriptCache.memoryMiss");
+        if (UrlParts.parse(source).isRelative()) {
+            entry = this.readPackaged(source);
+        } else {
+            if (entry == null) {
+                entry = this.readStored(source);
+            }
+
+            if (entry == null || (!entry.isFresh() && !this.serveStale)) {
+                Metrics.count(entry == null ? "scriptCache.diskMiss" : "scriptCache.diskStale");
+                entry = this.fetch(source, entry);
+            } else {
+                Metrics.count("scriptCache.diskHit");
+            }
+        }
+
+        this.putInMemory(source, entry);
+        return entry;
+    }
+
+    private Entry fetch(String source, Entry cachedEntry) throws IOException {
+        HttpURLConnection urlConnection;
+        try {
+            urlConnection = this.openConnection(source);
+        } catch (IOException e) {
+            if (cachedEntry != null) {
+                log.warning(String.format("Using stale copy of script '%s': %s", source, e.getMessage()));
+                Metrics.count("scriptCache.stale");
+                return cachedEntry;
+            }
+
+            throw e;
+        }
+
+        try {
+            if (cachedEntry != null) {
+                if (cachedEntry.etag != null) {
+                    urlConnection.setRequestProperty("If-None-Match", cachedEntry.etag);
+                }
+
+                if (cachedEntry.lastModified != null) {
+                    urlConnection.setRequestProperty("If-Modified-Since", cachedEntry.lastModified);
+                }
+            }
+
+            int responseCode = urlConnection.getResponseCode();
+            CacheControl cacheControl = CacheControl.parse(urlConnection.getHeaderField("Cache-Control"));
+            long expires = cacheControl.getExpiration(System.currentTimeMillis());
+
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cachedEntry != null) {
+                log.fine(String.format("Script not modified: '%s'", source));
+                Metrics.count("scriptCache.notModified");
+                Entry entry = new Entry(cachedEntry.content, cachedEntry.etag, cachedEntry.lastModified, expires);
+                this.updateStored(source, entry);
+                return entry;
+            }
+
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException(String.format("Unexpected response status %d", responseCode));
+            }
+
+            String content = StreamReader.read(urlConnection.getInputStream());
+            Entry entry = new Entry(content, urlConnection.getHeaderField("ETag"), urlConnection.getHeaderField("Last-Modified"), expires);
+            if (!cacheControl.noStore) {
+                this.store(source, entry);
+            }
+
+            return entry;
+        } catch (IOException e) {
+            if (cachedEntry != null) {
+                log.warning(String.format("Using stale copy of script '%s': %s", source, e.getMessage()));
+                Metrics.count("scriptCache.stale");
+                return cachedEntry;
+            }
+
+            throw e;
+        } finally {
+            urlConnection.disconnect();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.manifoldjs.hostedwebapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+* Classifies the connection types reported by cordova-plugin-network-information for the
+* mjs_connection_policy of the manifest.
+*
+* On slow connections, cached import scripts are used without being revalidated, the remote
+* scripts marked as not essential are loaded by the page after the first user interaction, and
+* precaching waits for a better connection. On fast connections, the remote import scripts are
+* revalidated and prefetched before pages need them. Any other type, and every type when the
+* manifest has no policy, keeps the default behavior.
+*/
+final class ConnectionPolicy {
+    static final int NORMAL = 0;
+    static final int SLOW = 1;
+    static final int FAST = 2;
+
+    static final ConnectionPolicy NONE = new ConnectionPolicy(Collections.<String>emptySet(), Collections.<String>emptySet(),
+            Collections.<String>emptyList(), Collections.<String>emptySet());
+
+    private final Set<String> slowConnections;
+    private final Set<String> fastConnections;
+    final List<String> prefetchScripts;
+    final Set<String> deferrableScripts;
+
+    private ConnectionPolicy(Set<String> slowConnections, Set<String> fastConnections, List<String> prefetchScripts, Set<String> deferrableScripts) {
+        this.slowConnections = slowConnections;
+        this.fastConnections = fastConnections;
+        this.prefetchScripts = Collections.unmodifiableList(prefetchScripts);
+        this.deferrableScripts = Collections.unmodifiableSet(deferrableScripts);
+    }
+
+    /**
+    * Compiles the policy of a manifest. Only remote import scripts are prefetched or deferred;
+    * the scripts packaged with the app are always read from the www folder.
+    */
+    static ConnectionPolicy compile(RuntimeManifest settings) {
+        if (settings.slowConnections.isEmpty() && settings.fastConnections.isEmpty()) {
+            return NONE;
+        }
+
+        List<String> prefetchScripts = new ArrayList<String>();
+        for (RuntimeManifest.Rule scriptRule : settings.scriptRules) {
+            if (!UrlParts.parse(scriptRule.value).isRelative() && !prefetchScripts.contains(scriptRule.value)) {
+                prefetchScripts.add(scriptRule.value);
+            }
+        }
+
+        Set<String> deferrableScripts = new HashSet<String>();
+        for (String source : settings.nonEssentialScripts) {
+            if (!UrlParts.parse(source).isRelative()) {
+                deferrableScripts.add(source);
+            }
+        }
+
+        return new ConnectionPolicy(new HashSet<String>(settings.slowConnections), new HashSet<String>(settings.fastConnections),
+                prefetchScripts, deferrableScripts);
+    }
+
+    /**
+    * Returns SLOW, FAST or NORMAL for a connection type.
+    */
+    int classify(String connectionType) {
+        String type = connectionType.trim().toLowerCase();
+        if (this.slowConnections.contains(type)) {
+            return SLOW;
+        }
+
+        return this.fastConnections.contains(type) ? FAST : NORMAL;
+    }
+
+    static String getName(int connectionClass) {
+        switch (connectionClass) {
+            case SLOW:
+                return "slow";
+            case FAST:
+                return "fast";
+            default:
+                return "normal";
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.manifoldjs.hostedwebapp;
+
+/**
+* Decides how much the plugin releases for each level reported by ComponentCallbacks2.onTrimMemory.
+*
+* The caches are shrunk to their least recently used half when memory is getting moderately low
+* while the app runs, and when its UI has just been hidden. They are emptied when memory is low or
+* critical while the app runs, and at every level reported once the app is in the background list.
+*/
+final class MemoryTrim {
+    // the values of the ComponentCallbacks2 constants
+    static final int RUNNING_MODERATE = 5;
+    static final int RUNNING_LOW = 10;
+    static final int RUNNING_CRITICAL = 15;
+    static final int UI_HIDDEN = 20;
+    static final int BACKGROUND = 40;
+    static final int MODERATE = 60;
+    static final int COMPLETE = 80;
+
+    private MemoryTrim() {
+    }
+
+    /**
+    * Returns whether the caches are emptied at a level, rather than shrunk.
+    */
+    static boolean shouldClear(int level) {
+        return level >= RUNNING_LOW && level != UI_HIDDEN;
+    }
+}
@@ -0,0 +1,215 @@
+package com.manifoldjs.hostedwebapp;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+* Lock-free store of the timings, sizes and counters recorded by the plugin.
+*
+* Recording is disabled by default; while disabled, each instrumentation point only reads a
+* volatile flag. Timings are kept in microseconds and sizes in bytes, in histograms with
+* power-of-two buckets. When tracing is enabled, timed operations also appear as sections in
+* systrace and Perfetto; android.os.Trace is looked up at run time, so the class also runs on a
+* plain JVM.
+*/
+final class Metrics {
+    private static final int BUCKETS = 48;
+
+    private static volatile boolean enabled;
+    private static volatile boolean tracing;
+    private static Method beginSection;
+    private static Method endSection;
+
+    private static final ConcurrentHashMap<String, Histogram> timings = new ConcurrentHashMap<String, Histogram>();
+    private static final ConcurrentHashMap<String, Histogram> sizes = new ConcurrentHashMap<String, Histogram>();
+    private static final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+    private static final class Histogram {
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            value = Math.max(0, value);
+            this.buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value)));
+            this.count.incrementAndGet();
+            this.sum.addAndGet(value);
+
+            long max;
+            while (value > (max = this.max.get()) && !this.max.compareAndSet(max, value)) {
+                // retry until the maximum is updated or a larger value is recorded
+            }
+        }
+
+        JSONObject toJSON() throws JSONException {
+            long count = this.count.get();
+            JSONObject result = new JSONObject();
+            result.put("count", count);
+            result.put("sum", this.sum.get());
+            result.put("max", this.max.get());
+            result.put("mean", count > 0 ? this.sum.get() / count : 0);
+            result.put("p50", this.percentile(count, 0.5));
+            result.put("p90", this.percentile(count, 0.9));
+            result.put("p99", this.percentile(count, 0.99));
+            return result;
+        }
+
+        // upper bound of the bucket that holds the percentile
+        private long percentile(long count, double fraction) {
+            long rank = (long) Math.ceil(count * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += this.buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(this.max.get(), i == 0 ? 0 : (1L << i) - 1);
+                }
+            }
+
+            return this.max.get();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    static void enable(boolean trace) {
+        if (trace) {
+            try {
+                // available from API level 18
+                Class<?> traceClass = Class.forName("android.os.Trace");
+                beginSection = traceClass.getMethod("beginSection", String.class);
+                endSection = traceClass.getMethod("endSection");
+                tracing = true;
+            } catch (ClassNotFoundException e) {
+                tracing = false;
+            } catch (NoSuchMethodException e) {
+                tracing = false;
+            }
+        }
+
+        enabled = true;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+    * Starts timing an operation on the current thread, returning 0 if recording is disabled.
+    */
+    static long start(String section) {
+        if (!enabled) {
+            return 0;
+        }
+
+        if (tracing) {
+            invoke(beginSection, section);
+        }
+
+        return System.nanoTime();
+    }
+
+    /**
+    * Records the time of an operation started on the current thread.
+    */
+    static void end(String name, long start) {
+        if (start == 0) {
+            return;
+        }
+
+        if (tracing) {
+            invoke(endSection);
+        }
+
+        record(timings, name, (System.nanoTime() - start) / 1000);
+    }
+
+    /**
+    * Records the time elapsed since a timestamp taken with now(), on any thread.
+    */
+    static void elapsed(String name, long start) {
+        if (start != 0 && enabled) {
+            record(timings, name, (System.nanoTime() - start) / 1000);
+        }
+    }
+
+    /**
+    * Returns a timestamp for elapsed, or 0 if recording is disabled.
+    */
+    static long now() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    static void size(String name, long bytes) {
+        if (enabled) {
+            record(sizes, name, bytes);
+        }
+    }
+
+    static void count(String name) {
+        if (enabled) {
+            AtomicLong counter = counters.get(name);
+            if (counter == null) {
+                AtomicLong created = new AtomicLong();
+                counter = counters.putIfAbsent(name, created);
+                if (counter == null) {
+                    counter = created;
+                }
+            }
+
+            counter.incrementAndGet();
+        }
+    }
+
+    static JSONObject snapshot() throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("enabled", enabled);
+        result.put("timings", toJSON(timings));
+        result.put("sizes", toJSON(sizes));
+
+        JSONObject counterValues = new JSONObject();
+        for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+            counterValues.put(counter.getKey(), counter.getValue().get());
+        }
+
+        result.put("counters", counterValues);
+        return result;
+    }
+
+    private static void invoke(Method method, Object... args) {
+        try {
+            method.invoke(null, args);
+        } catch (Exception e) {
+            tracing = false;
+        }
+    }
+
+    private static void record(ConcurrentHashMap<String, Histogram> histograms, String name, long value) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+
+        histogram.record(value);
+    }
+
+    private static JSONObject toJSON(ConcurrentHashMap<String, Histogram> histograms) throws JSONException {
+        JSONObject result = new JSONObject();
+        for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+            result.put(histogram.getKey(), histogram.getValue().toJSON());
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,133 @@
+package com.manifoldjs.hostedwebapp;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+/**
+* Keeps track of the top-level navigations the WebView is about to perform.
+*
+* Requests for documents cannot be told apart from other requests when they are intercepted,
+* so URLs are registered as the plugin sees navigations start and consumed by the interception.
+*
+* Each page load also gets a token. Script injections are tied to the token of the page they
+* were started for: the work still running when the next page starts is cancelled, and scripts
+* are only evaluated while their page is still the current one.
+*/
+class NavigationTracker {
+    private static final int MAX_PENDING_NAVIGATIONS = 8;
+
+    private final Set<String> pendingNavigations = new LinkedHashSet<String>();
+
+    // guarded by work
+    private final List<Future<?>> work = new ArrayList<Future<?>>();
+    private int token;
+    private String injectedDocument;
+
+    /**
+    * Registers a URL that the WebView is about to navigate to.
+    */
+    void expect(String url) {
+        synchronized (this.pendingNavigations) {
+            this.pendingNavigations.add(normalize(url));
+            if (this.pendingNavigations.size() > MAX_PENDING_NAVIGATIONS) {
+                Iterator<String> oldest = this.pendingNavigations.iterator();
+                oldest.next();
+                oldest.remove();
+            }
+        }
+    }
+
+    /**
+    * Returns whether a request is for a document the WebView is navigating to.
+    */
+    boolean take(String url) {
+        synchronized (this.pendingNavigations) {
+            return this.pendingNavigations.remove(normalize(url));
+        }
+    }
+
+    /**
+    * Starts a new page load, cancelling the injections of the previous one, and returns its token.
+    */
+    int pageStarted() {
+        synchronized (this.work) {
+            for (Future<?> future : this.work) {
+                future.cancel(true);
+            }
+
+            this.work.clear();
+            this.injectedDocument = null;
+            return ++this.token;
+        }
+    }
+
+    int getToken() {
+        synchronized (this.work) {
+            return this.token;
+        }
+    }
+
+    boolean isCurrent(int token) {
+        return this.getToken() == token;
+    }
+
+    /**
+    * Tracks the work of an injection, cancelling it right away if its page is no longer current.
+    */
+    void track(int token, Future<?> future) {
+        synchronized (this.work) {
+            if (token != this.token) {
+                future.cancel(true);
+                return;
+            }
+
+            Iterator<Future<?>> pending = this.work.iterator();
+            while (pending.hasNext()) {
+                if (pending.next().isDone()) {
+                    pending.remove();
+                }
+            }
+
+            this.work.add(future);
+        }
+    }
+
+    /**
+    * Returns whether the scripts of a document still need to be injected for a page load,
+    * which is only the case the first time it finishes loading.
+    */
+    boolean claimInjection(int token, String url) {
+        String document = normalize(url);
+        synchronized (this.work) {
+            if (token != this.token || document.equals(this.injectedDocument)) {
+                return false;
+            }
+
+            this.injectedDocument = document;
+            return true;
+        }
+    }
+
+    /**
+    * Normalizes a URL for comparison, removing its fragment and adding an empty path.
+    */
+    static String normalize(String url) {
+        int fragment = url.indexOf('#');
+        if (fragment >= 0) {
+            url = url.substring(0, fragment);
+        }
+
+        UrlParts parts = UrlParts.parse(url);
+        if (parts.host != null && parts.path != null && parts.path.isEmpty()) {
+            // without a path, the query follows the authority
+            int query = url.indexOf('?');
+            url = query >= 0 ? url.substring(0, query) + "/" + url.substring(query) : url + "/";
+        }
+
+        return url;
+    }
+}
@@ -0,0 +1,127 @@
+package com.manifoldjs.hostedwebapp;
+
+import org.json.JSONObject;
+
+/**
+* Dispatches the page and connection events that the WebView sends to the plugin.
+*
+* Page loads are tracked by the NavigationTracker, which cancels the injection work of a page
+* that is replaced and lets each loaded page claim its injection once. Connection errors show the
+* offline page and let the ReconnectionController reload the page once the app is reachable
+* again; the offline page is hidden only after a page has actually loaded. The host applies the
+* connection policy and injects the scripts of each loaded page through its ScriptInjector. All
+* the methods must be called on the main thread.
+*/
+final class PageEvents {
+    /**
+    * The platform side of the events.
+    */
+    interface Host {
+        /**
+        * Applies the connection policy and offline behavior for a new type of connection, as
+        * reported by the Network Information plugin. The type is "none" when offline.
+        */
+        void connectionChanged(String connectionType);
+
+        /**
+        * Returns whether a page that finished loading was not actually available, such as a page
+        * that is neither online nor in the offline cache.
+        */
+        boolean isUnavailable(String url);
+
+        void showOfflinePage();
+
+        void hideOfflinePage();
+
+        /**
+        * Injects the scripts selected by the manifest rules into a page that finished loading.
+        */
+        void injectScripts(String url, int token);
+    }
+
+    private final NavigationTracker navigations;
+    private final ReconnectionController reconnection;
+    private final Host host;
+
+    private boolean isConnectionError;
+    private long pageStarted;
+
+    PageEvents(NavigationTracker navigations, ReconnectionController reconnection, Host host) {
+        this.navigations = navigations;
+        this.reconnection = reconnection;
+        this.host = host;
+    }
+
+    /**
+    * Returns whether the current page failed to load because of a connection error.
+    */
+    boolean isConnectionError() {
+        return this.isConnectionError;
+    }
+
+    /**
+    * Handles a message of the Cordova plugin manager. Returns null, like CordovaPlugin.onMessage,
+    * so that other plugins also receive the message.
+    */
+    Object onMessage(String id, Object data) {
+        if (id.equals("networkconnection") && data != null) {
+            this.connectionChanged(data.toString());
+        } else if (id.equals("onPageStarted")) {
+            // scripts that are still being read for the previous page are not needed anymore
+            this.navigations.pageStarted();
+            this.isConnectionError = false;
+            this.pageStarted = Metrics.now();
+        } else if (id.equals("onReceivedError")) {
+            if (data instanceof JSONObject && ReconnectionController.isConnectionError(((JSONObject) data).optInt("errorCode"))) {
+                this.pageFailed();
+            }
+        } else if (id.equals("onPageFinished")) {
+            this.pageFinished(data != null ? data.toString() : null);
+        }
+
+        return null;
+    }
+
+    private void connectionChanged(String connectionType) {
+        this.host.connectionChanged(connectionType);
+        if (connectionType.equals("none")) {
+            this.reconnection.connectionChanged(false);
+            return;
+        }
+
+        // a page that failed to load is reloaded once the connection settles and its origin responds
+        this.reconnection.connectionChanged(true);
+        if (!this.isConnectionError) {
+            this.host.hideOfflinePage();
+        }
+    }
+
+    private void pageFailed() {
+        this.isConnectionError = true;
+        this.host.showOfflinePage();
+        this.reconnection.pageFailed();
+    }
+
+    private void pageFinished(String url) {
+        if (url != null && this.host.isUnavailable(url)) {
+            this.pageFailed();
+        }
+
+        // the offline page stays until a page actually loads
+        if (!this.isConnectionError) {
+            this.host.hideOfflinePage();
+            this.reconnection.pageLoaded();
+        }
+
+        Metrics.elapsed("page.load", this.pageStarted);
+        this.pageStarted = 0;
+
+        if (url != null) {
+            // the event fires again for redirects and fragment changes of the same document
+            int token = this.navigations.getToken();
+            if (this.navigations.claimInjection(token, url)) {
+                this.host.injectScripts(url, token);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.manifoldjs.hostedwebapp;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+* Fixed-size thread pool that runs queued tasks by priority, and in submission order within the
+* same priority.
+*
+* Reading the Cordova bridge and plugin scripts is submitted with PRIORITY_BRIDGE, so it does not
+* wait behind the custom scripts of the manifest, which are submitted with PRIORITY_IMPORT.
+* Scripts that no page is waiting for yet are prefetched with PRIORITY_PREFETCH.
+* Tasks submitted without a priority run with PRIORITY_IMPORT.
+*/
+class PriorityExecutor extends ThreadPoolExecutor {
+    static final int PRIORITY_BRIDGE = 0;
+    static final int PRIORITY_IMPORT = 1;
+    static final int PRIORITY_PREFETCH = 2;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private static final class PriorityTask<T> extends FutureTask<T> implements Comparable<PriorityTask<?>> {
+        final int priority;
+        final long sequence;
+
+        PriorityTask(Callable<T> callable, int priority, long sequence) {
+            super(callable);
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        PriorityTask(Runnable runnable, T result, int priority, long sequence) {
+            super(runnable, result);
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(PriorityTask<?> other) {
+            if (this.priority != other.priority) {
+                return this.priority < other.priority ? -1 : 1;
+            }
+
+            return this.sequence < other.sequence ? -1 : (this.sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    PriorityExecutor(int threads, final String name) {
+        super(threads, threads, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, name + "-" + this.count.incrementAndGet());
+            }
+        });
+
+        this.allowCoreThreadTimeOut(true);
+    }
+
+    <T> Future<T> submit(Callable<T> task, int priority) {
+        PriorityTask<T> future = new PriorityTask<T>(task, priority, this.sequence.getAndIncrement());
+        super.execute(future);
+        return future;
+    }
+
+    Future<?> execute(Runnable task, int priority) {
+        PriorityTask<Object> future = new PriorityTask<Object>(task, null, priority, this.sequence.getAndIncrement());
+        super.execute(future);
+        return future;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        // the queue can only order prioritized tasks
+        if (command instanceof PriorityTask) {
+            super.execute(command);
+        } else {
+            this.execute(command, PRIORITY_IMPORT);
+        }
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new PriorityTask<T>(callable, PRIORITY_IMPORT, this.sequence.getAndIncrement());
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new PriorityTask<T>(runnable, value, PRIORITY_IMPORT, this.sequence.getAndIncrement());
+    }
+}
@@ -0,0 +1,226 @@
+package com.manifoldjs.hostedwebapp;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.logging.Logger;
+
+/**
+* Reloads the page that failed to load once the hosted web app is reachable again.
+*
+* Connection events are debounced, so a flapping link results in a single attempt once it
+* settles. Each attempt probes the origin of the page with a HEAD request and only reloads the
+* page if the origin responds. Failed probes and failed reloads are retried with exponential
+* backoff and jitter while the network is available and the app is in the foreground. All the
+* methods must be called on the thread of the scheduler, which is the main thread on Android.
+*/
+class ReconnectionController {
+    private static final Logger log = Logger.getLogger("HostedWebApp");
+    private static final long DEBOUNCE_DELAY = 1500;
+    private static final long INITIAL_BACKOFF = 2000;
+    private static final long MAX_BACKOFF = 5 * 60 * 1000;
+    private static final int PROBE_TIMEOUT = 5000;
+
+    // the values of the WebViewClient error codes
+    private static final int ERROR_HOST_LOOKUP = -2;
+    private static final int ERROR_CONNECT = -6;
+    private static final int ERROR_TIMEOUT = -8;
+
+    /**
+    * Runs tasks on the thread that calls the controller, like android.os.Handler.
+    */
+    interface Scheduler {
+        void post(Runnable task);
+
+        void postDelayed(Runnable task, long delay);
+
+        void removeCallbacks(Runnable task);
+    }
+
+    /**
+    * The page that the controller reloads.
+    */
+    interface Page {
+        String getUrl();
+
+        void reload(String url);
+    }
+
+    private final Scheduler scheduler;
+    private final Executor executor;
+    private final String userAgent;
+    private final Page page;
+    private final Random random = new Random();
+    private final Runnable attemptTask = new Runnable() {
+        @Override
+        public void run() {
+            ReconnectionController.this.attempt();
+        }
+    };
+
+    private boolean failed;
+    private boolean connected = true;
+    private boolean paused;
+    private boolean reloading;
+    private int failures;
+
+    // incremented to ignore the result of probes that are still running
+    private int generation;
+
+    ReconnectionController(Scheduler scheduler, Executor executor, String userAgent, Page page) {
+        this.scheduler = scheduler;
+        this.executor = executor;
+        this.userAgent = userAgent;
+        this.page = page;
+    }
+
+    /**
+    * Returns whether an error reported by the WebView for a page means that the app is not
+    * reachable, so the offline page is shown and the page is reloaded later.
+    */
+    static boolean isConnectionError(int errorCode) {
+        return errorCode == 404 || errorCode == ERROR_HOST_LOOKUP || errorCode == ERROR_CONNECT || errorCode == ERROR_TIMEOUT;
+    }
+
+    /**
+    * Records that the current page could not be loaded.
+    */
+    void pageFailed() {
+        this.failed = true;
+        if (this.reloading) {
+            this.reloading = false;
+            this.retry();
+        }
+    }
+
+    /**
+    * Records that the current page loaded successfully, which resets the backoff.
+    */
+    void pageLoaded() {
+        this.failed = false;
+        this.reloading = false;
+        this.failures = 0;
+        this.cancel();
+    }
+
+    void connectionChanged(boolean connected) {
+        this.connected = connected;
+        this.cancel();
+        if (connected && this.failed && !this.paused) {
+            // restarts the delay on every event until the connection settles
+            this.scheduler.postDelayed(this.attemptTask, DEBOUNCE_DELAY);
+        }
+    }
+
+    void pause() {
+        this.paused = true;
+        this.cancel();
+    }
+
+    void resume() {
+        this.paused = false;
+        this.connectionChanged(this.connected);
+    }
+
+    private void cancel() {
+        this.scheduler.removeCallbacks(this.attemptTask);
+        this.generation++;
+    }
+
+    private void retry() {
+        this.failures++;
+        this.cancel();
+        if (this.connected && !this.paused) {
+            long delay = this.getBackoff();
+            log.fine(String.format("Retrying to load the page in %d ms", delay));
+            this.scheduler.postDelayed(this.attemptTask, delay);
+        }
+    }
+
+    // exponential backoff, with a random delay between half and all of it
+    private long getBackoff() {
+        long delay = Math.min(MAX_BACKOFF, INITIAL_BACKOFF << Math.min(this.failures - 1, 16));
+        return delay / 2 + (long) (this.random.nextDouble() * (delay / 2));
+    }
+
+    private void attempt() {
+        if (!this.failed || !this.connected || this.paused) {
+            return;
+        }
+
+        final String url = this.page.getUrl();
+        final URL origin = UrlParts.getOrigin(url);
+        if (origin == null) {
+            // pages that are not loaded from the network are reloaded right away
+            this.reload(url);
+            return;
+        }
+
+        final ReconnectionController me = this;
+        final int generation = this.generation;
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final boolean reachable = me.probe(origin);
+                me.scheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != me.generation) {
+                            return;
+                        }
+
+                        if (reachable) {
+                            me.reload(url);
+                        } else {
+                            me.retry();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void reload(String url) {
+        if (url == null) {
+            return;
+        }
+
+        Metrics.count("reconnect.reload");
+        this.reloading = true;
+        this.page.reload(url);
+    }
+
+    // any response other than a server error means that the page can be loaded again
+    private boolean probe(URL origin) {
+        long start = Metrics.start("reconnect.probe");
+        HttpURLConnection urlConnection = null;
+        try {
+            urlConnection = (HttpURLConnection) origin.openConnection();
+            if (this.userAgent != null) {
+                urlConnection.setRequestProperty("User-Agent", this.userAgent);
+            }
+
+            urlConnection.setConnectTimeout(PROBE_TIMEOUT);
+            urlConnection.setReadTimeout(PROBE_TIMEOUT);
+            urlConnection.setInstanceFollowRedirects(false);
+            urlConnection.setUseCaches(false);
+            urlConnection.setRequestMethod("HEAD");
+
+            int responseCode = urlConnection.getResponseCode();
+            log.fine(String.format("Reachability probe of '%s' returned %d", origin, responseCode));
+            return responseCode > 0 && responseCode < 500;
+        } catch (IOException e) {
+            log.fine(String.format("Reachability probe of '%s' failed", origin));
+            Metrics.count("reconnect.probeFailed");
+            return false;
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+
+            Metrics.end("reconnect.probe", start);
+        }
+    }
+}
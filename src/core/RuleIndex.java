@@ -0,0 +1,373 @@
+package com.manifoldjs.hostedwebapp;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+* Immutable index of the mjs_api_access and mjs_import_scripts rules of a manifest.
+*
+* Rules are compiled once when the manifest is loaded. URL patterns follow the same
+* semantics as org.apache.cordova.Whitelist and are bucketed by host, so matching a
+* page only evaluates the patterns that can apply to it. Results are cached per URL.
+*/
+class RuleIndex {
+    private static final Logger log = Logger.getLogger("HostedWebApp");
+    private static final int MATCH_CACHE_SIZE = 64;
+
+    // Same origin grammar as org.apache.cordova.Whitelist.addWhiteListEntry
+    private static final Pattern ORIGIN_PARTS = Pattern.compile("^((\\*|[A-Za-z-]+):(//)?)?(\\*|((\\*\\.)?[^*/:]+))?(:(\\d+))?(/.*)?");
+
+    private static final int ACCESS_CORDOVA = 1;
+    private static final int ACCESS_NONE = 2;
+
+    /**
+    * Result of matching a page against the manifest rules.
+    */
+    static final class Match {
+        static final Match NONE = new Match(false, Collections.<String>emptyList());
+
+        final boolean apiAccess;
+        final List<String> scripts;
+
+        Match(boolean apiAccess, List<String> scripts) {
+            this.apiAccess = apiAccess;
+            this.scripts = scripts;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Match)) {
+                return false;
+            }
+
+            Match other = (Match) o;
+            return this.apiAccess == other.apiAccess && this.scripts.equals(other.scripts);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.scripts.hashCode() + (this.apiAccess ? 1 : 0);
+        }
+    }
+
+    private static final class UrlPattern {
+        final int ruleId;
+        final Pattern scheme;
+        final Pattern host;
+        final Integer port;
+        final Pattern path;
+
+        UrlPattern(int ruleId, Pattern scheme, Pattern host, Integer port, Pattern path) {
+            this.ruleId = ruleId;
+            this.scheme = scheme;
+            this.host = host;
+            this.port = port;
+            this.path = path;
+        }
+
+        boolean matches(UrlParts url) {
+            String uriScheme = url.scheme;
+            String uriHost = url.host;
+            String uriPath = url.path;
+
+            // a null component makes the Whitelist matcher throw, which it reports as no match
+            return (this.scheme == null || (uriScheme != null && this.scheme.matcher(uriScheme).matches()))
+                    && (this.host == null || (uriHost != null && this.host.matcher(uriHost).matches()))
+                    && (this.port == null || this.port == url.port)
+                    && (this.path == null || (uriPath != null && this.path.matcher(uriPath).matches()));
+        }
+    }
+
+    // rules are numbered in manifest order; API rules first, then import scripts
+    private final int[] apiRuleAccess;
+    private final String[] scriptSources;
+    private final BitSet matchAllRules;
+
+    private final Map<String, List<UrlPattern>> exactHosts;
+    private final Map<String, List<UrlPattern>> wildcardHosts;
+    private final List<UrlPattern> anyHost;
+
+    private final BoundedCache<String, Match> matchCache = new BoundedCache<String, Match>(MATCH_CACHE_SIZE);
+
+    private RuleIndex(int[] apiRuleAccess, String[] scriptSources, BitSet matchAllRules,
+                      Map<String, List<UrlPattern>> exactHosts, Map<String, List<UrlPattern>> wildcardHosts, List<UrlPattern> anyHost) {
+        this.apiRuleAccess = apiRuleAccess;
+        this.scriptSources = scriptSources;
+        this.matchAllRules = matchAllRules;
+        this.exactHosts = exactHosts;
+        this.wildcardHosts = wildcardHosts;
+        this.anyHost = anyHost;
+    }
+
+    /**
+    * Compiles the rules of a manifest for the given platform.
+    */
+    static RuleIndex compile(JSONObject manifest, String platform) {
+        RuntimeManifest settings = RuntimeManifest.fromJson(manifest, platform);
+        return compile(settings.apiRules, settings.scriptRules);
+    }
+
+    /**
+    * Compiles API access and import script rules that are already filtered for the platform.
+    */
+    static RuleIndex compile(List<RuntimeManifest.Rule> apiRules, List<RuntimeManifest.Rule> scriptRules) {
+        List<Integer> access = new ArrayList<Integer>();
+        for (RuntimeManifest.Rule apiRule : apiRules) {
+            access.add(apiRule.value.equals(RuntimeManifest.ACCESS_NONE) ? ACCESS_NONE : ACCESS_CORDOVA);
+        }
+
+        List<String> sources = new ArrayList<String>();
+        for (RuntimeManifest.Rule scriptRule : scriptRules) {
+            sources.add(scriptRule.value);
+        }
+
+        int[] apiRuleAccess = new int[access.size()];
+        for (int i = 0; i < apiRuleAccess.length; i++) {
+            apiRuleAccess[i] = access.get(i);
+        }
+
+        BitSet matchAllRules = new BitSet();
+        Map<String, List<UrlPattern>> exactHosts = new HashMap<String, List<UrlPattern>>();
+        Map<String, List<UrlPattern>> wildcardHosts = new HashMap<String, List<UrlPattern>>();
+        List<UrlPattern> anyHost = new ArrayList<UrlPattern>();
+
+        List<RuntimeManifest.Rule> rules = new ArrayList<RuntimeManifest.Rule>(apiRules);
+        rules.addAll(scriptRules);
+        for (int ruleId = 0; ruleId < rules.size(); ruleId++) {
+            List<String> entries = rules.get(ruleId).matches;
+            if (entries.isEmpty() || entries.contains("*")) {
+                // no match list, or a "*" entry, means the Whitelist allows every URL
+                matchAllRules.set(ruleId);
+                continue;
+            }
+
+            for (String entry : entries) {
+                for (String[] origin : parseOrigin(entry)) {
+                    UrlPattern pattern = compilePattern(ruleId, origin);
+                    if (pattern == null) {
+                        continue;
+                    }
+
+                    String host = origin[1];
+                    if ("*".equals(host)) {
+                        anyHost.add(pattern);
+                    } else if (host.startsWith("*.")) {
+                        addToBucket(wildcardHosts, toLowerCaseAscii(host.substring(2)), pattern);
+                    } else {
+                        addToBucket(exactHosts, toLowerCaseAscii(host), pattern);
+                    }
+                }
+            }
+        }
+
+        return new RuleIndex(apiRuleAccess, sources.toArray(new String[sources.size()]), matchAllRules, exactHosts, wildcardHosts, anyHost);
+    }
+
+    /**
+    * Returns the API access and the custom scripts that apply to a page.
+    */
+    Match match(String pageUrl) {
+        Match match = this.matchCache.get(pageUrl);
+        if (match == null) {
+            match = this.evaluate(pageUrl);
+            this.matchCache.put(pageUrl, match);
+        }
+
+        return match;
+    }
+
+    /**
+    * Releases the cached match results, or the least recently used half of them.
+    */
+    void trimMemory(boolean clear) {
+        if (clear) {
+            this.matchCache.clear();
+        } else {
+            this.matchCache.trimToSize(MATCH_CACHE_SIZE / 2);
+        }
+    }
+
+    /**
+    * Approximate size of the cached match results, counting the characters of their URLs.
+    */
+    long getRetainedBytes() {
+        long bytes = 0;
+        for (String url : this.matchCache.snapshot().keySet()) {
+            bytes += url.length() * 2;
+        }
+
+        return bytes;
+    }
+
+    private Match evaluate(String pageUrl) {
+        BitSet matched = (BitSet) this.matchAllRules.clone();
+        UrlParts url = UrlParts.parse(pageUrl);
+        String host = url.host;
+
+        matchPatterns(this.anyHost, url, matched);
+        if (host != null) {
+            host = toLowerCaseAscii(host);
+            matchPatterns(this.exactHosts.get(host), url, matched);
+
+            // "*.example.com" applies to example.com and any of its subdomains
+            String suffix = host;
+            while (suffix != null) {
+                matchPatterns(this.wildcardHosts.get(suffix), url, matched);
+                int dot = suffix.indexOf('.');
+                suffix = dot >= 0 ? suffix.substring(dot + 1) : null;
+            }
+        }
+
+        // only visit the matched rules, so the cost does not grow with the size of the manifest
+        boolean apiAccess = false;
+        int i = matched.nextSetBit(0);
+        for (; i >= 0 && i < this.apiRuleAccess.length; i = matched.nextSetBit(i + 1)) {
+            if (this.apiRuleAccess[i] == ACCESS_NONE) {
+                apiAccess = false;
+                break;
+            }
+
+            apiAccess = true;
+        }
+
+        List<String> scripts = new ArrayList<String>();
+        for (i = matched.nextSetBit(this.apiRuleAccess.length); i >= 0; i = matched.nextSetBit(i + 1)) {
+            scripts.add(this.scriptSources[i - this.apiRuleAccess.length]);
+        }
+
+        if (!apiAccess && scripts.isEmpty()) {
+            return Match.NONE;
+        }
+
+        return new Match(apiAccess, Collections.unmodifiableList(scripts));
+    }
+
+    private static void matchPatterns(List<UrlPattern> patterns, UrlParts url, BitSet matched) {
+        if (patterns != null) {
+            for (UrlPattern pattern : patterns) {
+                if (!matched.get(pattern.ruleId) && pattern.matches(url)) {
+                    matched.set(pattern.ruleId);
+                }
+            }
+        }
+    }
+
+    // returns {scheme, host, port, path} tuples for an origin, as the Whitelist would register them
+    private static List<String[]> parseOrigin(String origin) {
+        List<String[]> origins = new ArrayList<String[]>();
+        Matcher m = ORIGIN_PARTS.matcher(origin);
+        if (m.matches()) {
+            String scheme = m.group(2);
+            String host = m.group(4);
+            // Special case for two urls which are allowed to have empty hosts
+            if (("file".equals(scheme) || "content".equals(scheme)) && host == null) {
+                host = "*";
+            }
+
+            if (host == null) {
+                // the Whitelist fails to register entries without a host
+                return origins;
+            }
+
+            String port = m.group(8);
+            String path = m.group(9);
+            if (scheme == null) {
+                origins.add(new String[] { "http", host, port, path });
+                origins.add(new String[] { "https", host, port, path });
+            } else {
+                origins.add(new String[] { scheme, host, port, path });
+            }
+        }
+
+        return origins;
+    }
+
+    private static UrlPattern compilePattern(int ruleId, String[] origin) {
+        String scheme = origin[0];
+        String host = origin[1];
+        String port = origin[2];
+        String path = origin[3];
+
+        Integer portNumber = null;
+        if (port != null && !"*".equals(port)) {
+            try {
+                portNumber = Integer.parseInt(port, 10);
+            } catch (NumberFormatException e) {
+                log.fine(String.format("Invalid port in match rule '%s'", port));
+                return null;
+            }
+        }
+
+        Pattern schemePattern = "*".equals(scheme) ? null : Pattern.compile(regexFromPattern(scheme, false), Pattern.CASE_INSENSITIVE);
+
+        Pattern hostPattern;
+        if ("*".equals(host)) {
+            hostPattern = null;
+        } else if (host.startsWith("*.")) {
+            hostPattern = Pattern.compile("([a-z0-9.-]*\\.)?" + regexFromPattern(host.substring(2), false), Pattern.CASE_INSENSITIVE);
+        } else {
+            hostPattern = Pattern.compile(regexFromPattern(host, false), Pattern.CASE_INSENSITIVE);
+        }
+
+        Pattern pathPattern = (path == null || "/*".equals(path)) ? null : Pattern.compile(regexFromPattern(path, true));
+
+        return new UrlPattern(ruleId, schemePattern, hostPattern, portNumber, pathPattern);
+    }
+
+    private static String regexFromPattern(String pattern, boolean allowWildcards) {
+        final String toReplace = "\\.[]{}()^$?+|";
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' && allowWildcards) {
+                regex.append(".");
+            } else if (toReplace.indexOf(c) > -1) {
+                regex.append('\\');
+            }
+
+            regex.append(c);
+        }
+
+        return regex.toString();
+    }
+
+    private static void addToBucket(Map<String, List<UrlPattern>> buckets, String host, UrlPattern pattern) {
+        List<UrlPattern> bucket = buckets.get(host);
+        if (bucket == null) {
+            bucket = new ArrayList<UrlPattern>();
+            buckets.put(host, bucket);
+        }
+
+        bucket.add(pattern);
+    }
+
+    // host patterns are case-insensitive for ASCII characters only
+    private static String toLowerCaseAscii(String value) {
+        StringBuilder result = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                if (result == null) {
+                    result = new StringBuilder(value);
+                }
+
+                result.setCharAt(i, (char) (c + ('a' - 'A')));
+            }
+        }
+
+        return result != null ? result.toString() : value;
+    }
+}
@@ -0,0 +1,335 @@
+package com.manifoldjs.hostedwebapp;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+* The manifest settings that the plugin compiles at startup, already trimmed, normalized and
+* filtered for one platform.
+*
+* The settings are either extracted from the manifest JSON or read from the runtime manifest that
+* the prepare hook writes next to www/manifest.json. The runtime manifest has one setting per line,
+* with tab-separated values, and starts with the length and SHA-1 of the manifest.json it was
+* compiled from, so a manifest edited after the last prepare is detected and loaded from JSON
+* instead. Instances are not modified once created.
+*
+* The connection types of mjs_connection_policy are only set when the manifest has that setting,
+* with the defaults for the lists it leaves out, so manifests without it keep the behavior of
+* every other connection type.
+*/
+final class RuntimeManifest {
+    private static final Logger log = Logger.getLogger("HostedWebApp");
+
+    static final String FORMAT = "hostedwebapp-runtime";
+    static final int VERSION = 2;
+
+    static final String ACCESS_CORDOVA = "cordova";
+    static final String ACCESS_NONE = "none";
+
+    static final List<String> DEFAULT_SLOW_CONNECTIONS = Collections.unmodifiableList(Arrays.asList("2g"));
+    static final List<String> DEFAULT_FAST_CONNECTIONS = Collections.unmodifiableList(Arrays.asList("wifi", "ethernet"));
+
+    /**
+    * An mjs_api_access rule, with its access type, or an mjs_import_scripts rule, with its source.
+    */
+    static final class Rule {
+        final String value;
+        final List<String> matches;
+
+        Rule(String value, List<String> matches) {
+            this.value = value;
+            this.matches = Collections.unmodifiableList(matches);
+        }
+    }
+
+    long sourceLength = -1;
+    String sourceHash;
+
+    String startUrl = "";
+    String scope = "";
+    final List<String> scopeRules = new ArrayList<String>();
+
+    String pluginMode = "client";
+    String cordovaBaseUrl = "/";
+    String injectionMode = "page_finished";
+
+    boolean offlineFeature = true;
+    boolean offlineCache;
+    long cacheSizeMb = -1;
+    final List<String> precache = new ArrayList<String>();
+
+    final List<Rule> apiRules = new ArrayList<Rule>();
+    final List<Rule> scriptRules = new ArrayList<Rule>();
+    final List<String> nonEssentialScripts = new ArrayList<String>();
+
+    final List<String> slowConnections = new ArrayList<String>();
+    final List<String> fastConnections = new ArrayList<String>();
+
+    private RuntimeManifest() {
+    }
+
+    /**
+    * Extracts the settings of a manifest for the given platform.
+    */
+    static RuntimeManifest fromJson(JSONObject manifest, String platform) {
+        RuntimeManifest result = new RuntimeManifest();
+        result.startUrl = manifest.optString("start_url", "").trim();
+        result.scope = manifest.optString("scope", "").trim();
+
+        JSONArray extendedScope = manifest.optJSONArray("mjs_extended_scope");
+        if (extendedScope != null) {
+            for (int i = 0; i < extendedScope.length(); i++) {
+                String rule = extendedScope.optString(i, "").trim();
+                if (!rule.isEmpty()) {
+                    result.scopeRules.add(rule);
+                }
+            }
+        }
+
+        JSONArray accessWhitelist = manifest.optJSONArray("mjs_access_whitelist");
+        if (accessWhitelist != null) {
+            for (int i = 0; i < accessWhitelist.length(); i++) {
+                JSONObject item = accessWhitelist.optJSONObject(i);
+                if (item != null && !item.optString("url", "").trim().isEmpty()) {
+                    result.scopeRules.add(item.optString("url").trim());
+                }
+            }
+        }
+
+        JSONObject cordovaSettings = manifest.optJSONObject("mjs_cordova");
+        if (cordovaSettings != null) {
+            result.pluginMode = cordovaSettings.optString("plugin_mode", "client").trim();
+            result.cordovaBaseUrl = cordovaSettings.optString("base_url", "").trim();
+            if (!result.cordovaBaseUrl.endsWith("/")) {
+                result.cordovaBaseUrl += "/";
+            }
+
+            result.injectionMode = cordovaSettings.optString("injection_mode", result.injectionMode).trim();
+        }
+
+        JSONObject offlineSettings = manifest.optJSONObject("mjs_offline_feature");
+        result.offlineFeature = offlineSettings != null ? offlineSettings.optBoolean("enabled", true) : manifest.optBoolean("mjs_offline_feature", true);
+
+        JSONArray precacheList = manifest.optJSONArray("mjs_precache");
+        if ((offlineSettings != null && offlineSettings.optBoolean("cache", false)) || precacheList != null) {
+            result.offlineCache = true;
+            result.cacheSizeMb = offlineSettings != null ? offlineSettings.optLong("cache_size_mb", -1) : -1;
+
+            JSONArray icons = manifest.optJSONArray("icons");
+            if (icons != null) {
+                for (int i = 0; i < icons.length(); i++) {
+                    JSONObject icon = icons.optJSONObject(i);
+                    if (icon != null) {
+                        result.addPrecache(icon.optString("src", "").trim());
+                    }
+                }
+            }
+
+            if (precacheList != null) {
+                for (int i = 0; i < precacheList.length(); i++) {
+                    result.addPrecache(precacheList.optString(i, "").trim());
+                }
+            }
+        }
+
+        JSONArray apiAccessRules = manifest.optJSONArray("mjs_api_access");
+        if (apiAccessRules != null) {
+            for (int i = 0; i < apiAccessRules.length(); i++) {
+                JSONObject apiRule = apiAccessRules.optJSONObject(i);
+                if (apiRule != null && isPlatformMatch(apiRule, platform)) {
+                    String accessType = getAccessType(apiRule.optString("access", ACCESS_CORDOVA).trim());
+                    if (accessType != null) {
+                        result.apiRules.add(new Rule(accessType, getMatchEntries(apiRule)));
+                    }
+                }
+            }
+        }
+
+        JSONArray customScripts = manifest.optJSONArray("mjs_import_scripts");
+        if (customScripts != null) {
+            for (int i = 0; i < customScripts.length(); i++) {
+                JSONObject item = customScripts.optJSONObject(i);
+                if (item != null) {
+                    String source = item.optString("src", "").trim();
+                    if (!source.isEmpty()) {
+                        result.scriptRules.add(new Rule(source, getMatchEntries(item)));
+                        if (!item.optBoolean("essential", true)) {
+                            result.nonEssentialScripts.add(source);
+                        }
+                    }
+                }
+            }
+        }
+
+        JSONObject connectionPolicy = manifest.optJSONObject("mjs_connection_policy");
+        if (connectionPolicy != null) {
+            addConnectionTypes(result.slowConnections, connectionPolicy.optJSONArray("slow"), DEFAULT_SLOW_CONNECTIONS);
+            addConnectionTypes(result.fastConnections, connectionPolicy.optJSONArray("fast"), DEFAULT_FAST_CONNECTIONS);
+        }
+
+        return result;
+    }
+
+    /**
+    * Reads a runtime manifest written by the prepare hook.
+    */
+    static RuntimeManifest parse(String text) throws IOException {
+        String[] lines = text.split("\r?\n");
+        String[] header = lines[0].split("\t", -1);
+        if (header.length != 2 || !header[0].equals(FORMAT) || !header[1].equals(String.valueOf(VERSION))) {
+            throw new IOException(String.format("Unsupported runtime manifest format: '%s'", lines[0]));
+        }
+
+        RuntimeManifest result = new RuntimeManifest();
+        try {
+            for (int i = 1; i < lines.length; i++) {
+                String[] values = lines[i].split("\t", -1);
+                String key = values[0];
+                if (key.equals("source")) {
+                    result.sourceLength = Long.parseLong(values[1]);
+                    result.sourceHash = values[2];
+                } else if (key.equals("start_url")) {
+                    result.startUrl = values[1];
+                } else if (key.equals("scope")) {
+                    result.scope = values[1];
+                } else if (key.equals("scope_rule")) {
+                    result.scopeRules.add(values[1]);
+                } else if (key.equals("cordova")) {
+                    result.pluginMode = values[1];
+                    result.cordovaBaseUrl = values[2];
+                    result.injectionMode = values[3];
+                } else if (key.equals("offline")) {
+                    result.offlineFeature = values[1].equals("1");
+                    result.offlineCache = values[2].equals("1");
+                    result.cacheSizeMb = values[3].isEmpty() ? -1 : Long.parseLong(values[3]);
+                } else if (key.equals("precache")) {
+                    result.precache.add(values[1]);
+                } else if (key.equals("api")) {
+                    String accessType = getAccessType(values[1]);
+                    if (accessType != null) {
+                        result.apiRules.add(new Rule(accessType, Arrays.asList(values).subList(2, values.length)));
+                    }
+                } else if (key.equals("script")) {
+                    result.scriptRules.add(new Rule(values[1], Arrays.asList(values).subList(2, values.length)));
+                } else if (key.equals("non_essential")) {
+                    result.nonEssentialScripts.add(values[1]);
+                } else if (key.equals("slow_connection")) {
+                    result.slowConnections.add(values[1]);
+                } else if (key.equals("fast_connection")) {
+                    result.fastConnections.add(values[1]);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Incomplete runtime manifest entry");
+        } catch (NumberFormatException e) {
+            throw new IOException(String.format("Invalid number in runtime manifest: %s", e.getMessage()));
+        }
+
+        if (result.sourceHash == null) {
+            throw new IOException("Runtime manifest does not identify its source");
+        }
+
+        return result;
+    }
+
+    /**
+    * Returns whether the runtime manifest was compiled from the given manifest.json content.
+    */
+    boolean isCompiledFrom(String manifestJson) {
+        try {
+            byte[] bytes = manifestJson.getBytes("UTF-8");
+            return bytes.length == this.sourceLength && hash(bytes).equals(this.sourceHash);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // hex encoded SHA-1, as computed by the prepare hook
+    static String hash(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(content);
+            StringBuilder result = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                result.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void addPrecache(String url) {
+        if (!url.isEmpty()) {
+            this.precache.add(url);
+        }
+    }
+
+    // connection types are compared in lower case
+    private static void addConnectionTypes(List<String> types, JSONArray values, List<String> defaultTypes) {
+        if (values == null) {
+            types.addAll(defaultTypes);
+            return;
+        }
+
+        for (int i = 0; i < values.length(); i++) {
+            String type = values.optString(i, "").trim().toLowerCase();
+            if (!type.isEmpty()) {
+                types.add(type);
+            }
+        }
+    }
+
+    private static String getAccessType(String accessType) {
+        if (accessType.equalsIgnoreCase(ACCESS_CORDOVA)) {
+            return ACCESS_CORDOVA;
+        } else if (accessType.equalsIgnoreCase(ACCESS_NONE)) {
+            return ACCESS_NONE;
+        }
+
+        log.fine(String.format("Unsupported API access type '%s' found in mjs_api_access rule.", accessType));
+        return null;
+    }
+
+    private static boolean isPlatformMatch(JSONObject item, String platform) {
+        String platforms = item.optString("platform", "").trim();
+        if (platforms.isEmpty()) {
+            return true;
+        }
+
+        for (String p : platforms.split(",")) {
+            if (p.trim().equalsIgnoreCase(platform)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static List<String> getMatchEntries(JSONObject item) {
+        List<String> entries = new ArrayList<String>();
+        JSONArray match = item.optJSONArray("match");
+        if (match == null) {
+            String matchString = item.optString("match", "").trim();
+            if (!matchString.isEmpty()) {
+                entries.add(matchString);
+            }
+        } else {
+            for (int j = 0; j < match.length(); j++) {
+                entries.add(match.optString(j).trim());
+            }
+        }
+
+        return entries;
+    }
+}
@@ -0,0 +1,366 @@
+package com.manifoldjs.hostedwebapp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+* Assembles and memoizes the script injected into pages.
+*
+* A bundle holds the window.hostedWebApp settings, the Cordova scripts and the custom scripts
+* for one rule match result, so pages with the same outcome share a single pre-built string.
+* Bundles that include remote scripts are rebuilt once any of those scripts goes stale.
+*
+* On slow connections, the remote scripts that the manifest marks as not essential can be left
+* out of a bundle; the bundle then adds them to the page as script elements after the first user
+* interaction, so the WebView downloads them once the page is in use. Those bundles are memoized
+* separately from the complete ones.
+*/
+class ScriptBundles {
+    private static final Logger log = Logger.getLogger("HostedWebApp");
+    private static final int BUNDLE_CACHE_SIZE = 16;
+    private static final long FETCH_DEADLINE = 12000;
+
+    private static final class Bundle {
+        final String script;
+        final long expires;
+
+        Bundle(String script, long expires) {
+            this.script = script;
+            this.expires = expires;
+        }
+    }
+
+    private final ScriptLoader scriptLoader;
+    private final String pluginMode;
+    private final String cordovaBaseUrl;
+    private final PriorityExecutor fetchExecutor;
+    private final Set<String> deferrableScripts;
+    private final BoundedCache<RuleIndex.Match, Bundle> bundles = new BoundedCache<RuleIndex.Match, Bundle>(BUNDLE_CACHE_SIZE);
+    private final BoundedCache<RuleIndex.Match, Bundle> deferredBundles = new BoundedCache<RuleIndex.Match, Bundle>(BUNDLE_CACHE_SIZE);
+
+    ScriptBundles(ScriptLoader scriptLoader, PriorityExecutor fetchExecutor, String pluginMode, String cordovaBaseUrl, Set<String> deferrableScripts) {
+        this.scriptLoader = scriptLoader;
+        this.fetchExecutor = fetchExecutor;
+        this.pluginMode = pluginMode;
+        this.cordovaBaseUrl = cordovaBaseUrl;
+        this.deferrableScripts = deferrableScripts;
+    }
+
+    /**
+    * Returns the memoized bundle for a match result, or null if it must be built.
+    */
+    String getCached(RuleIndex.Match match) {
+        return this.getCached(match, false);
+    }
+
+    /**
+    * Returns the memoized bundle for a match result, with the deferrable scripts left out if
+    * deferScripts is set, or null if it must be built.
+    */
+    String getCached(RuleIndex.Match match, boolean deferScripts) {
+        Bundle bundle = this.getCache(match, deferScripts).get(match);
+        if (bundle != null && System.currentTimeMillis() < bundle.expires) {
+            Metrics.count("bundles.hit");
+            return bundle.script;
+        }
+
+        Metrics.count("bundles.miss");
+        return null;
+    }
+
+    /**
+    * Releases the memoized bundles, or the least recently used half of them.
+    */
+    void trimMemory(boolean clear) {
+        if (clear) {
+            this.bundles.clear();
+            this.deferredBundles.clear();
+        } else {
+            this.bundles.trimToSize(BUNDLE_CACHE_SIZE / 2);
+            this.deferredBundles.trimToSize(BUNDLE_CACHE_SIZE / 2);
+        }
+    }
+
+    /**
+    * Approximate size of the memoized bundles, whose strings are stored as UTF-16.
+    */
+    long getRetainedBytes() {
+        long bytes = 0;
+        for (Bundle bundle : this.bundles.snapshot().values()) {
+            bytes += bundle.script.length() * 2;
+        }
+
+        for (Bundle bundle : this.deferredBundles.snapshot().values()) {
+            bytes += bundle.script.length() * 2;
+        }
+
+        return bytes;
+    }
+
+    /**
+    * Builds the bundle for a match result, reading any scripts it needs.
+    *
+    * Remote scripts are fetched concurrently; a script that fails or does not arrive before
+    * the fetch deadline is left out of the bundle, keeping the order of the rest. Returns null
+    * if the thread is interrupted, cancelling the fetches that have not completed.
+    */
+    String build(RuleIndex.Match match) {
+        return this.build(match, false);
+    }
+
+    /**
+    * Builds the bundle for a match result, leaving the deferrable scripts to be loaded by the
+    * page after the first user interaction if deferScripts is set.
+    */
+    String build(RuleIndex.Match match, boolean deferScripts) {
+        List<String> sources = new ArrayList<String>();
+        List<String> deferred = new ArrayList<String>();
+        if (match.apiAccess) {
+            if (this.pluginMode.equals("client")) {
+                sources.add("cordova.js");
+            }
+
+            sources.add("hostedapp-bridge.js");
+        }
+
+        for (String source : match.scripts) {
+            if (deferScripts && this.deferrableScripts.contains(source)) {
+                deferred.add(source);
+            } else {
+                sources.add(source);
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + FETCH_DEADLINE;
+        List<Future<ScriptLoader.Entry>> fetches = new ArrayList<Future<ScriptLoader.Entry>>(sources.size());
+        for (final String source : sources) {
+            if (UrlParts.parse(source).isRelative()) {
+                fetches.add(null);
+            } else {
+                fetches.add(this.fetchExecutor.submit(new Callable<ScriptLoader.Entry>() {
+                    @Override
+                    public ScriptLoader.Entry call() throws Exception {
+                        return loadScript(ScriptBundles.this.scriptLoader, source);
+                    }
+                }, PriorityExecutor.PRIORITY_IMPORT));
+            }
+        }
+
+        StringBuilder script = new StringBuilder();
+        long expires = Long.MAX_VALUE;
+
+        if (match.apiAccess) {
+            script.append("window.hostedWebApp = { 'platform': 'android', 'pluginMode': ")
+                    .append(quote(this.pluginMode))
+                    .append(", 'cordovaBaseUrl': ")
+                    .append(quote(this.cordovaBaseUrl))
+                    .append("};");
+        }
+
+        for (int i = 0; i < sources.size(); i++) {
+            String source = sources.get(i);
+            Future<ScriptLoader.Entry> fetch = fetches.get(i);
+
+            ScriptLoader.Entry entry;
+            if (fetch == null) {
+                entry = loadScript(this.scriptLoader, source);
+            } else {
+                entry = waitForScript(fetch, source, deadline);
+            }
+
+            if (Thread.currentThread().isInterrupted()) {
+                cancel(fetches);
+                return null;
+            }
+
+            expires = Math.min(expires, appendScript(script, source, entry));
+        }
+
+        if (!deferred.isEmpty()) {
+            appendDeferredScripts(script, deferred);
+        }
+
+        String result = script.toString();
+        if (expires > System.currentTimeMillis()) {
+            this.getCache(match, deferScripts).put(match, new Bundle(result, expires));
+        }
+
+        return result;
+    }
+
+    /**
+    * Reads plugin scripts concurrently and appends them to a bundle in order, returning the
+    * number of scripts that could be loaded. Stops at the first script that was not appended if
+    * the thread is interrupted.
+    */
+    static int appendScripts(final ScriptLoader scriptLoader, PriorityExecutor executor, StringBuilder script, List<String> sources) {
+        long deadline = System.currentTimeMillis() + FETCH_DEADLINE;
+        List<Future<ScriptLoader.Entry>> reads = new ArrayList<Future<ScriptLoader.Entry>>(sources.size());
+        for (final String source : sources) {
+            reads.add(executor.submit(new Callable<ScriptLoader.Entry>() {
+                @Override
+                public ScriptLoader.Entry call() throws Exception {
+                    return loadScript(scriptLoader, source);
+                }
+            }, PriorityExecutor.PRIORITY_BRIDGE));
+        }
+
+        int loaded = 0;
+        for (int i = 0; i < sources.size(); i++) {
+            ScriptLoader.Entry entry = waitForScript(reads.get(i), sources.get(i), deadline);
+            if (Thread.currentThread().isInterrupted()) {
+                cancel(reads);
+                break;
+            }
+
+            if (entry != null) {
+                appendScript(script, sources.get(i), entry);
+                loaded++;
+            }
+        }
+
+        return loaded;
+    }
+
+    /**
+    * Appends a script to a bundle and returns the time until which its content is fresh.
+    */
+    static long appendScript(ScriptLoader scriptLoader, StringBuilder script, String source) {
+        return appendScript(script, source, loadScript(scriptLoader, source));
+    }
+
+    private static long appendScript(StringBuilder script, String source, ScriptLoader.Entry entry) {
+        if (entry == null) {
+            return 0;
+        }
+
+        if (!entry.content.isEmpty()) {
+            script.append("\r\n//# sourceURL=").append(source).append("\r\n").append(entry.content);
+        }
+
+        return entry.expires;
+    }
+
+    // a match without deferrable scripts has the same bundle whether or not scripts are deferred
+    private BoundedCache<RuleIndex.Match, Bundle> getCache(RuleIndex.Match match, boolean deferScripts) {
+        if (deferScripts) {
+            for (String source : match.scripts) {
+                if (this.deferrableScripts.contains(source)) {
+                    return this.deferredBundles;
+                }
+            }
+        }
+
+        return this.bundles;
+    }
+
+    // adds the scripts to the page in order once the user first interacts with it
+    private static void appendDeferredScripts(StringBuilder script, List<String> sources) {
+        script.append("\r\n;(function () {\r\n    var sources = [");
+        for (int i = 0; i < sources.size(); i++) {
+            script.append(i > 0 ? ", " : "").append(quote(sources.get(i)));
+        }
+
+        script.append("];\r\n")
+                .append("    var events = ['pointerdown', 'touchstart', 'keydown', 'scroll'];\r\n")
+                .append("    var load = function () {\r\n")
+                .append("        for (var i = 0; i < events.length; i++) {\r\n")
+                .append("            window.removeEventListener(events[i], load, true);\r\n")
+                .append("        }\r\n")
+                .append("        for (var j = 0; j < sources.length; j++) {\r\n")
+                .append("            var element = document.createElement('script');\r\n")
+                .append("            element.src = sources[j];\r\n")
+                .append("            element.async = false;\r\n")
+                .append("            (document.head || document.documentElement).appendChild(element);\r\n")
+                .append("        }\r\n")
+                .append("    };\r\n")
+                .append("    for (var i = 0; i < events.length; i++) {\r\n")
+                .append("        window.addEventListener(events[i], load, true);\r\n")
+                .append("    }\r\n")
+                .append("})();");
+    }
+
+    private static ScriptLoader.Entry loadScript(ScriptLoader scriptLoader, String source) {
+        log.warning(String.format("Injecting script: '%s'", source));
+
+        long start = System.currentTimeMillis();
+        long metricsStart = Metrics.start("script.load");
+        try {
+            ScriptLoader.Entry entry = scriptLoader.getEntry(source);
+            log.fine(String.format("Loaded script '%s' in %d ms", source, System.currentTimeMillis() - start));
+            return entry;
+        } catch (IOException e) {
+            log.log(Level.WARNING, String.format("ERROR: failed to load script file: '%s' (%d ms)", source, System.currentTimeMillis() - start), e);
+        } finally {
+            if (metricsStart != 0) {
+                Metrics.end("script.load " + source, metricsStart);
+            }
+        }
+
+        return null;
+    }
+
+    private static void cancel(List<Future<ScriptLoader.Entry>> fetches) {
+        for (Future<ScriptLoader.Entry> fetch : fetches) {
+            if (fetch != null) {
+                fetch.cancel(true);
+            }
+        }
+    }
+
+    private static ScriptLoader.Entry waitForScript(Future<ScriptLoader.Entry> fetch, String source, long deadline) {
+        try {
+            return fetch.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // the fetch keeps running so that the script is cached for the next page
+            log.warning(String.format("Timed out loading script: '%s'", source));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.warning(String.format("ERROR: failed to load script file: '%s'", source));
+        }
+
+        return null;
+    }
+
+    // quotes a value as a JavaScript string literal
+    static String quote(String value) {
+        StringBuilder result = new StringBuilder(value.length() + 16);
+        result.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                    result.append('\\').append(c);
+                    break;
+                case '\n':
+                    result.append("\\n");
+                    break;
+                case '\r':
+                    result.append("\\r");
+                    break;
+                case '\t':
+                    result.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        result.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        result.append(c);
+                    }
+            }
+        }
+
+        return result.append('"').toString();
+    }
+}
@@ -0,0 +1,120 @@
+package com.manifoldjs.hostedwebapp;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+* Injects the scripts selected by the manifest rules into the pages of the WebView, and adapts
+* the loading of the scripts to the class of the current connection.
+*
+* Bundles that were built for a previous page are reused right away; others are built on the
+* injection executor, the ones with the Cordova bridge first, and the work is cancelled if the
+* page is replaced. On slow connections, scripts that are not essential are left out of the
+* bundles and cached scripts are used without being revalidated. On fast connections, the remote
+* import scripts are revalidated on the fetch executor before pages need them.
+*/
+final class ScriptInjector {
+    private static final Logger log = Logger.getLogger("HostedWebApp");
+
+    /**
+    * Evaluates the bundles in the WebView.
+    */
+    interface Page {
+        /**
+        * Evaluates a bundle in the page identified by the token, if it is still loaded. The bundle
+        * is cached when it was built for a previous page.
+        */
+        void evaluate(String bundle, int token, boolean cached);
+    }
+
+    private final NavigationTracker navigations;
+    private final CachingScriptLoader scriptLoader;
+    private final PriorityExecutor fetchExecutor;
+    private final PriorityExecutor injectionExecutor;
+    private final Page page;
+    private volatile int connectionClass = ConnectionPolicy.NORMAL;
+
+    ScriptInjector(NavigationTracker navigations, CachingScriptLoader scriptLoader, PriorityExecutor fetchExecutor, PriorityExecutor injectionExecutor,
+            Page page) {
+        this.navigations = navigations;
+        this.scriptLoader = scriptLoader;
+        this.fetchExecutor = fetchExecutor;
+        this.injectionExecutor = injectionExecutor;
+        this.page = page;
+    }
+
+    int getConnectionClass() {
+        return this.connectionClass;
+    }
+
+    boolean isDeferringScripts() {
+        return this.connectionClass == ConnectionPolicy.SLOW;
+    }
+
+    /**
+    * Switches to the class of a new connection, or applies the class again when the policy has
+    * changed. Returns the previous class.
+    */
+    synchronized int setConnectionClass(int connectionClass, ConnectionPolicy policy) {
+        int previous = this.connectionClass;
+        this.connectionClass = connectionClass;
+        this.scriptLoader.setServeStale(connectionClass == ConnectionPolicy.SLOW);
+        if (connectionClass == ConnectionPolicy.FAST) {
+            this.prefetch(policy.prefetchScripts);
+        }
+
+        return previous;
+    }
+
+    /**
+    * Injects the scripts that the rules select for a page that has finished loading.
+    */
+    void inject(RuleIndex ruleIndex, final ScriptBundles bundles, String pageUrl, final int token) {
+        long matchStart = Metrics.start("rules.match");
+        final RuleIndex.Match match = ruleIndex.match(pageUrl);
+        Metrics.end("rules.match", matchStart);
+        if (match == RuleIndex.Match.NONE) {
+            return;
+        }
+
+        // scripts that are not essential wait for the first interaction on slow connections
+        final boolean deferScripts = this.isDeferringScripts();
+        String bundle = bundles.getCached(match, deferScripts);
+        if (bundle != null) {
+            this.page.evaluate(bundle, token, true);
+            return;
+        }
+
+        // bundles with the Cordova bridge are built before the ones with custom scripts only
+        final Page page = this.page;
+        int priority = match.apiAccess ? PriorityExecutor.PRIORITY_BRIDGE : PriorityExecutor.PRIORITY_IMPORT;
+        this.navigations.track(token, this.injectionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String bundle = bundles.build(match, deferScripts);
+                if (bundle != null) {
+                    page.evaluate(bundle, token, false);
+                }
+            }
+        }, priority));
+    }
+
+    // revalidates the remote import scripts before the pages that use them are loaded
+    private void prefetch(List<String> sources) {
+        final CachingScriptLoader scriptLoader = this.scriptLoader;
+        for (final String source : sources) {
+            this.fetchExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        scriptLoader.refresh(source);
+                    } catch (IOException e) {
+                        log.fine(String.format("Failed to prefetch script '%s': %s", source, e.getMessage()));
+                        Metrics.count("scriptCache.prefetchFailed");
+                    }
+                }
+            }, PriorityExecutor.PRIORITY_PREFETCH);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.manifoldjs.hostedwebapp;
+
+import java.io.IOException;
+
+/**
+* Source of the scripts assembled into the bundles injected into pages.
+*/
+interface ScriptLoader {
+    /**
+    * Content of a script and the validators of its cached copy.
+    */
+    final class Entry {
+        final String content;
+        final String etag;
+        final String lastModified;
+        final long expires;
+
+        Entry(String content, String etag, String lastModified, long expires) {
+            this.content = content;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+        }
+
+        boolean isFresh() {
+            return System.currentTimeMillis() < this.expires;
+        }
+    }
+
+    /**
+    * Returns a script, either a path relative to the www folder or an absolute URL.
+    */
+    Entry getEntry(String source) throws IOException;
+}
@@ -0,0 +1,86 @@
+package com.manifoldjs.hostedwebapp;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+* A loaded manifest: the settings that the plugin compiles, and the manifest JSON for the callers
+* that need it.
+*
+* When the runtime manifest matches manifest.json, the settings are read from it and the JSON is
+* only parsed the first time it is requested, so loading the default manifest at startup does not
+* parse it. Otherwise the JSON is parsed right away and the settings are extracted from it.
+*/
+final class StartupManifest {
+    private static final Logger log = Logger.getLogger("HostedWebApp");
+
+    final RuntimeManifest settings;
+    private final String text;
+    private JSONObject json;
+
+    private StartupManifest(RuntimeManifest settings, String text, JSONObject json) {
+        this.settings = settings;
+        this.text = text;
+        this.json = json;
+    }
+
+    /**
+    * Loads a manifest from the content of manifest.json and of the runtime manifest compiled from
+    * it, which is null when the app has none.
+    */
+    static StartupManifest load(String manifestText, String runtimeText, String platform) throws JSONException {
+        if (runtimeText != null) {
+            long start = Metrics.start("manifest.runtime");
+            try {
+                RuntimeManifest settings = RuntimeManifest.parse(runtimeText);
+                if (settings.isCompiledFrom(manifestText)) {
+                    return new StartupManifest(settings, manifestText, null);
+                }
+
+                log.fine("Runtime manifest is out of date, loading manifest.json instead");
+            } catch (IOException e) {
+                log.warning(String.format("Failed to read the runtime manifest: %s", e.getMessage()));
+            } finally {
+                Metrics.end("manifest.runtime", start);
+            }
+        }
+
+        return fromJson(parse(manifestText), platform);
+    }
+
+    static StartupManifest fromJson(JSONObject manifest, String platform) {
+        return new StartupManifest(RuntimeManifest.fromJson(manifest, platform), null, manifest);
+    }
+
+    /**
+    * Returns the manifest JSON, parsing the manifest text the first time it is requested, or null
+    * if it is not valid.
+    */
+    synchronized JSONObject getJson() {
+        if (this.json == null && this.text != null) {
+            try {
+                this.json = parse(this.text);
+            } catch (JSONException e) {
+                log.warning(String.format("Invalid manifest: %s", e.getMessage()));
+            }
+        }
+
+        return this.json;
+    }
+
+    synchronized boolean isParsed() {
+        return this.json != null;
+    }
+
+    private static JSONObject parse(String manifestText) throws JSONException {
+        long start = Metrics.start("manifest.parse");
+        try {
+            return new JSONObject(manifestText);
+        } finally {
+            Metrics.end("manifest.parse", start);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.manifoldjs.hostedwebapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+* Reads UTF-8 content from streams of any size.
+*
+* Each thread reuses its read buffer, decoder and output buffer, so reading a script only
+* allocates the resulting string. The output buffer grows as needed up to the maximum size;
+* buffers that grow beyond RETAINED_CHARS are released once the read completes.
+*/
+final class StreamReader {
+    static final int DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final int INITIAL_CHARS = 16 * 1024;
+    private static final int RETAINED_CHARS = 256 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ThreadLocal<StreamReader> readers = new ThreadLocal<StreamReader>() {
+        @Override
+        protected StreamReader initialValue() {
+            return new StreamReader();
+        }
+    };
+
+    private final ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final CharsetDecoder decoder = UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private CharBuffer output = CharBuffer.allocate(INITIAL_CHARS);
+
+    private StreamReader() {
+    }
+
+    /**
+    * Reads a stream to the end and closes it.
+    */
+    static String read(InputStream inputStream) throws IOException {
+        return read(inputStream, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+    * Reads a stream to the end and closes it, failing if it holds more than maxBytes.
+    */
+    static String read(InputStream inputStream, int maxBytes) throws IOException {
+        try {
+            return readers.get().readFully(inputStream, maxBytes);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private String readFully(InputStream inputStream, int maxBytes) throws IOException {
+        this.input.clear();
+        this.output.clear();
+        this.decoder.reset();
+
+        try {
+            byte[] bytes = this.input.array();
+            long total = 0;
+            int count;
+            while ((count = inputStream.read(bytes, this.input.position(), this.input.remaining())) != -1) {
+                total += count;
+                if (total > maxBytes) {
+                    throw new IOException(String.format("Content exceeds the maximum size of %d bytes", maxBytes));
+                }
+
+                this.input.position(this.input.position() + count);
+                this.input.flip();
+                this.decode(false);
+
+                // keep any incomplete multi-byte sequence for the next read
+                this.input.compact();
+            }
+
+            this.input.flip();
+            this.decode(true);
+            while (this.decoder.flush(this.output) == CoderResult.OVERFLOW) {
+                this.grow();
+            }
+
+            this.output.flip();
+            return this.output.toString();
+        } finally {
+            if (this.output.capacity() > RETAINED_CHARS) {
+                this.output = CharBuffer.allocate(INITIAL_CHARS);
+            }
+        }
+    }
+
+    private void decode(boolean endOfInput) throws IOException {
+        while (true) {
+            CoderResult result = this.decoder.decode(this.input, this.output, endOfInput);
+            if (result.isOverflow()) {
+                this.grow();
+            } else if (result.isUnderflow()) {
+                return;
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    private void grow() {
+        CharBuffer larger = CharBuffer.allocate(this.output.capacity() * 2);
+        this.output.flip();
+        larger.put(this.output);
+        this.output = larger;
+    }
+}
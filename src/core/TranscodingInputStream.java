@@ -0,0 +1,124 @@
+package com.manifoldjs.hostedwebapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+
+/**
+* Stream that re-encodes text in another charset as UTF-8, as it is read.
+*
+* Responses served to the WebView by the plugin are always decoded as UTF-8, so text in any
+* other charset has to be converted first. Malformed input is replaced rather than reported, and
+* a charset that is unknown or not supported leaves the text unchanged.
+*/
+final class TranscodingInputStream extends InputStream {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 4 * 1024;
+
+    private final Reader reader;
+    private final CharsetEncoder encoder;
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE * 3);
+    private boolean endOfInput;
+
+    private TranscodingInputStream(InputStream input, Charset charset) {
+        this.reader = new InputStreamReader(input, charset);
+        this.encoder = UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytes.flip();
+    }
+
+    /**
+    * Returns a stream with the text of the input as UTF-8, or the input itself if it does not
+    * need to be converted.
+    */
+    static InputStream toUtf8(InputStream input, String charset) {
+        Charset inputCharset = getCharset(charset);
+        return inputCharset != null ? new TranscodingInputStream(input, inputCharset) : input;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return this.fill() ? this.bytes.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        if (count == 0) {
+            return 0;
+        }
+
+        if (!this.fill()) {
+            return -1;
+        }
+
+        count = Math.min(count, this.bytes.remaining());
+        this.bytes.get(buffer, offset, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return this.bytes.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.reader.close();
+    }
+
+    // encodes more text until there are bytes to read, or returns false at the end of the input
+    private boolean fill() throws IOException {
+        while (!this.bytes.hasRemaining()) {
+            if (this.endOfInput) {
+                return false;
+            }
+
+            int count = this.reader.read(this.chars.array(), this.chars.position(), this.chars.remaining());
+            if (count == -1) {
+                this.endOfInput = true;
+            } else {
+                this.chars.position(this.chars.position() + count);
+            }
+
+            // a high surrogate at the end of the buffer is kept until its pair is read
+            this.chars.flip();
+            this.bytes.clear();
+            this.encoder.encode(this.chars, this.bytes, this.endOfInput);
+            if (this.endOfInput) {
+                this.encoder.flush(this.bytes);
+            }
+
+            this.chars.compact();
+            this.bytes.flip();
+        }
+
+        return true;
+    }
+
+    // the charset to convert from, or null if the text is already UTF-8 or cannot be converted
+    private static Charset getCharset(String charset) {
+        if (charset == null) {
+            return null;
+        }
+
+        try {
+            if (!Charset.isSupported(charset)) {
+                return null;
+            }
+        } catch (IllegalCharsetNameException e) {
+            return null;
+        }
+
+        Charset inputCharset = Charset.forName(charset);
+        return inputCharset.equals(UTF_8) ? null : inputCharset;
+    }
+}
@@ -0,0 +1,135 @@
+package com.manifoldjs.hostedwebapp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+* Components of a URL, split the same way as android.net.Uri.parse.
+*
+* Parsing is lenient and never fails: the scheme is everything before the first colon, the
+* authority follows a double slash, and opaque URLs such as mailto: have no host or path. The host
+* and path are percent-decoded; the port is -1 when it is missing or not a number.
+*/
+final class UrlParts {
+    final String scheme;
+    final String host;
+    final int port;
+    final String path;
+
+    private UrlParts(String scheme, String host, int port, String path) {
+        this.scheme = scheme;
+        this.host = host;
+        this.port = port;
+        this.path = path;
+    }
+
+    static UrlParts parse(String url) {
+        int fragment = url.indexOf('#');
+        if (fragment >= 0) {
+            url = url.substring(0, fragment);
+        }
+
+        int schemeEnd = url.indexOf(':');
+        String scheme = schemeEnd >= 0 ? url.substring(0, schemeEnd) : null;
+        int start = schemeEnd + 1;
+        if (scheme != null && (start == url.length() || url.charAt(start) != '/')) {
+            // opaque URLs have no hierarchical part
+            return new UrlParts(scheme, null, -1, null);
+        }
+
+        String host = null;
+        int port = -1;
+        int pathStart = start;
+        if (url.startsWith("//", start)) {
+            int authorityEnd = start + 2;
+            while (authorityEnd < url.length() && "/\\?".indexOf(url.charAt(authorityEnd)) < 0) {
+                authorityEnd++;
+            }
+
+            String authority = url.substring(start + 2, authorityEnd);
+            authority = authority.substring(authority.lastIndexOf('@') + 1);
+            int portSeparator = authority.lastIndexOf(':');
+            if (portSeparator >= 0) {
+                try {
+                    port = Integer.parseInt(authority.substring(portSeparator + 1));
+                } catch (NumberFormatException e) {
+                    port = -1;
+                }
+
+                authority = authority.substring(0, portSeparator);
+            }
+
+            host = decode(authority);
+            pathStart = authorityEnd;
+        }
+
+        int query = url.indexOf('?', pathStart);
+        String path = decode(url.substring(pathStart, query >= 0 ? query : url.length()));
+        return new UrlParts(scheme, host, port, path);
+    }
+
+    boolean isRelative() {
+        return this.scheme == null;
+    }
+
+    /**
+    * Returns the root URL of the origin of an HTTP or HTTPS URL, or null for other URLs.
+    */
+    static URL getOrigin(String url) {
+        if (url == null) {
+            return null;
+        }
+
+        try {
+            URL parsed = new URL(url);
+            String protocol = parsed.getProtocol();
+            if (!"http".equals(protocol) && !"https".equals(protocol)) {
+                return null;
+            }
+
+            return new URL(protocol, parsed.getHost(), parsed.getPort(), "/");
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    // decodes %XX escapes as UTF-8, leaving invalid escapes as they are
+    private static String decode(String value) {
+        if (value.indexOf('%') < 0) {
+            return value;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length());
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            int high = i + 2 < value.length() ? Character.digit(value.charAt(i + 1), 16) : -1;
+            int low = i + 2 < value.length() ? Character.digit(value.charAt(i + 2), 16) : -1;
+            if (c == '%' && high >= 0 && low >= 0) {
+                bytes.write((high << 4) | low);
+                i += 2;
+                continue;
+            }
+
+            flush(bytes, result);
+            result.append(c);
+        }
+
+        flush(bytes, result);
+        return result.toString();
+    }
+
+    private static void flush(ByteArrayOutputStream bytes, StringBuilder result) {
+        if (bytes.size() > 0) {
+            try {
+                result.append(bytes.toString("UTF-8"));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+
+            bytes.reset();
+        }
+    }
+}
@@ -10,6 +10,12 @@ var hostedwebapp = {
   },
   disableOfflinePage : function () {
     cordova.exec(undefined, undefined, "HostedWebApp", "disableOfflinePage", []);
+  },
+  getMetrics: function (successCallback, errorCallback) {
+    cordova.exec(successCallback, errorCallback, "HostedWebApp", "getMetrics", []);
+  },
+  getMemoryUsage: function (successCallback, errorCallback) {
+    cordova.exec(successCallback, errorCallback, "HostedWebApp", "getMemoryUsage", []);
   }
 }
 
@@ -77,6 +77,40 @@
                         };
                     }
 
+                    // In Android client mode, inject all plugin scripts with a single call to the native side;
+                    // scripts that fail to load are injected one by one by the plugin loader afterwards
+                    if (platform === 'android' && pluginMode === 'client') {
+                        var pluginListHandler = onloadHandler;
+                        var pathPrefix = url.substring(0, url.length - cordovaPluginsScript.length);
+
+                        onloadHandler = function () {
+                            var moduleMap = cordova.define.moduleMap;
+                            if (!('cordova/plugin_list' in moduleMap)) {
+                                return pluginListHandler();
+                            }
+
+                            var moduleList = cordova.require('cordova/plugin_list');
+                            var files = [];
+                            for (var i = 0; i < moduleList.length; i++) {
+                                if (!(moduleList[i].id in moduleMap)) {
+                                    files.push(pathPrefix + moduleList[i].file);
+                                }
+                            }
+
+                            if (!files.length) {
+                                return pluginListHandler();
+                            }
+
+                            cordova.require('cordova/exec')(function () {
+                                pluginListHandler();
+                            },
+                            function () {
+                                pluginListHandler();
+                            },
+                            'HostedWebApp', 'injectPluginScripts', [files]);
+                        };
+                    }
+
                     // In server mode, rewrite url to retrieve platform specific file
                     if (pluginMode === 'server') {
                         url = url.replace(cordovaPluginsScript, 'cordova_plugins-' + platform + '.js');